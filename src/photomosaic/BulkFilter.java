@@ -0,0 +1,44 @@
+package photomosaic;
+
+/**
+ * The <code>BulkFilter</code> interface specifies a filter that transforms
+ * whole rows of packed ARGB pixels (<code>0xAARRGGBB</code>, row by row, so
+ * the pixel at (x,y) is at <code>[y*width + x]</code>) instead of answering one
+ * color component of one pixel at a time. <code>Picture.filter</code> splits
+ * the rows of a picture into strips and filters the strips in parallel, so
+ * implementations must be safe to call from several threads at once.
+ */
+interface BulkFilter extends Filter {
+	/**
+	 * Filters the rows <code>rowStart</code> (inclusive) to
+	 * <code>rowEnd</code> (exclusive) of the picture stored in
+	 * <code>src</code>, storing the (opaque) results in the same positions in
+	 * <code>dst</code>. Only these rows of <code>dst</code> may be written, but
+	 * any row of <code>src</code> may be read.
+	 *
+	 * @param src
+	 *            specifies the packed ARGB pixels to filter
+	 * @param dst
+	 *            specifies where to store the filtered pixels; it is the same
+	 *            array as <code>src</code> when <code>isPointFilter</code> is
+	 *            true
+	 * @param width
+	 *            specifies the width of the picture (in pixels)
+	 * @param height
+	 *            specifies the height of the picture (in pixels)
+	 * @param rowStart
+	 *            specifies the first row to filter
+	 * @param rowEnd
+	 *            specifies one beyond the last row to filter
+	 */
+	public void filterRows(int[] src, int[] dst, int width, int height, int rowStart, int rowEnd);
+
+	/**
+	 * Returns whether each filtered pixel depends only on the same pixel in
+	 * the original picture, in which case a picture can be filtered in place
+	 * (<code>src</code> and <code>dst</code> are the same array).
+	 *
+	 * @return whether this filter can be applied in place
+	 */
+	public boolean isPointFilter();
+}
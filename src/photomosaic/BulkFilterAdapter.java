@@ -0,0 +1,50 @@
+package photomosaic;
+
+/**
+ * The <code>BulkFilterAdapter</code> class lets any per-pixel
+ * <code>Filter</code> be used where a <code>BulkFilter</code> is needed: it
+ * calls <code>getFiltered</code> three times for each pixel, on a
+ * <code>Picture</code> that wraps the source array. Because such a filter may
+ * read neighboring pixels, it is never applied in place.
+ */
+class BulkFilterAdapter implements BulkFilter {
+	private final Filter filter;
+
+	public BulkFilterAdapter(Filter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Returns <code>f</code> itself if it already is a
+	 * <code>BulkFilter</code>, otherwise an adapter for it.
+	 *
+	 * @param f
+	 *            specifies the filter to adapt
+	 *
+	 * @return a <code>BulkFilter</code> that filters like <code>f</code>
+	 */
+	public static BulkFilter of(Filter f) {
+		return f instanceof BulkFilter ? (BulkFilter) f : new BulkFilterAdapter(f);
+	}
+
+	public int getFiltered(int colorToFilter, Picture p, int x, int y) throws IllegalArgumentException {
+		return filter.getFiltered(colorToFilter, p, x, y);
+	}
+
+	public void filterRows(int[] src, int[] dst, int width, int height, int rowStart, int rowEnd) {
+		Picture p = Picture.wrap("", width, height, src);
+		for (int y = rowStart; y < rowEnd; y++)
+			for (int x = 0, i = y * width; x < width; x++, i++) {
+				int r = filter.getFiltered(RED, p, x, y);
+				int g = filter.getFiltered(GREEN, p, x, y);
+				int b = filter.getFiltered(BLUE, p, x, y);
+				if (r < 0 || r > 255 || g < 0 || g > 255 || b < 0 || b > 255)
+					throw new IllegalArgumentException("BulkFilterAdapter: R:G:B illegal: " + r + ":" + g + ":" + b);
+				dst[i] = Picture.pack(r, g, b);
+			}
+	}
+
+	public boolean isPointFilter() {
+		return false;
+	}
+}
@@ -0,0 +1,171 @@
+package photomosaic;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.Scrollable;
+
+/**
+ * The <code>CatalogViewer</code> class displays a database of pictures (all
+ * of the same size) in a scrolling window, as many to a row as fit across it.
+ * It never builds a picture of the whole catalog: each time it is painted it
+ * draws just the pictures that are visible, straight from the database, so
+ * its cost depends on the size of the window, not the size of the database.
+ * The images of the visible pictures are kept (and only those), so
+ * repainting or scrolling part of the way does not read again pictures that
+ * are kept compactly, in a database file, or made from other pictures. The
+ * same window is reused each time the database is displayed again.
+ */
+class CatalogViewer extends JPanel implements Scrollable {
+	private List<PhotomosaicInfo> tiles = new ArrayList<PhotomosaicInfo>();
+	private int tileWidth = 1, tileHeight = 1;
+	private JFrame frame;
+	// The images of the visible pictures, by index
+	private HashMap<Integer, BufferedImage> page = new HashMap<Integer, BufferedImage>();
+
+	public CatalogViewer() {
+		setBackground(Color.white);
+	}
+
+	/**
+	 * Displays <code>tiles</code> in this viewer's window (creating the window
+	 * the first time), whose upper-left hand corner appears on the screen at
+	 * coordinate (x,y); if both are not >=0, the window remains in its same
+	 * location.
+	 *
+	 * @param tiles
+	 *            specifies the pictures to display (this viewer keeps its own
+	 *            copy of the list, not of the pictures)
+	 * @param tileWidth
+	 *            specifies the width of every picture (in pixels)
+	 * @param tileHeight
+	 *            specifies the height of every picture (in pixels)
+	 * @param x
+	 *            specifies the x (horizontal) location of the upper-left hand
+	 *            corner of the window
+	 * @param y
+	 *            specifies the y (vertical) location of the upper-left hand
+	 *            corner of the window
+	 */
+	public void display(List<PhotomosaicInfo> tiles, int tileWidth, int tileHeight, int x, int y) {
+		this.tiles = new ArrayList<PhotomosaicInfo>(tiles);
+		this.tileWidth = Math.max(1, tileWidth);
+		this.tileHeight = Math.max(1, tileHeight);
+		page = new HashMap<Integer, BufferedImage>();
+		if (frame == null) {
+			frame = new JFrame();
+			frame.getContentPane().add(new JScrollPane(this));
+			Dimension screen = Picture._tk.getScreenSize();
+			int columns = Math.max(1, (int) Math.sqrt(tiles.size()));
+			int rows = (tiles.size() + columns - 1) / columns;
+			frame.setSize(Math.min(columns * this.tileWidth + 30, screen.width),
+					Math.min(rows * this.tileHeight + 40, screen.height));
+		}
+		frame.setTitle("Picture Database: " + tiles.size() + " pictures, " + tileWidth + " x " + tileHeight);
+		if (x >= 0 && y >= 0)
+			frame.setLocation(x, y);
+		revalidate();
+		repaint();
+		frame.setVisible(true);
+	}
+
+	/**
+	 * Empties this viewer, so it no longer keeps any pictures (or their
+	 * images), without showing its window: a window that is open shows an
+	 * empty catalog, and one that was closed stays closed.
+	 */
+	public void clear() {
+		tiles = new ArrayList<PhotomosaicInfo>();
+		page = new HashMap<Integer, BufferedImage>();
+		if (frame != null)
+			frame.setTitle("Picture Database: 0 pictures, " + tileWidth + " x " + tileHeight);
+		revalidate();
+		repaint();
+	}
+
+	/**
+	 * Returns how many pictures fit across the window.
+	 */
+	private int getColumns() {
+		int width = getParent() != null ? getParent().getWidth() : getWidth();
+		return Math.max(1, width / tileWidth);
+	}
+
+	public Dimension getPreferredSize() {
+		int columns = getColumns();
+		int rows = (tiles.size() + columns - 1) / columns;
+		return new Dimension(columns * tileWidth, rows * tileHeight);
+	}
+
+	public void setBounds(int x, int y, int width, int height) {
+		boolean resized = width != getWidth();
+		super.setBounds(x, y, width, height);
+		// The number of rows (and so the height to scroll) depends on the width
+		if (resized)
+			revalidate();
+	}
+
+	protected void paintComponent(Graphics g) {
+		super.paintComponent(g);
+		int columns = getColumns();
+		// Keep the images of the pictures that are visible now, reading those
+		// not already kept (without caching them elsewhere)
+		Rectangle visible = getVisibleRect();
+		HashMap<Integer, BufferedImage> newPage = new HashMap<Integer, BufferedImage>();
+		int first = visible.y / tileHeight * columns;
+		int last = Math.min(tiles.size(), ((visible.y + visible.height - 1) / tileHeight + 1) * columns);
+		for (int i = first; i < last; i++) {
+			BufferedImage image = page.get(i);
+			newPage.put(i, image != null ? image : tiles.get(i).readPicture().getBufferImage());
+		}
+		page = newPage;
+
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
+		int firstRow = clip.y / tileHeight, lastRow = (clip.y + clip.height - 1) / tileHeight;
+		int firstColumn = clip.x / tileWidth;
+		int lastColumn = Math.min(columns - 1, (clip.x + clip.width - 1) / tileWidth);
+		for (int row = firstRow; row <= lastRow; row++)
+			for (int col = firstColumn; col <= lastColumn; col++) {
+				int i = row * columns + col;
+				if (i >= tiles.size())
+					return;
+				BufferedImage image = page.get(i);
+				if (image == null)
+					image = tiles.get(i).readPicture().getBufferImage();
+				g.drawImage(image, col * tileWidth, row * tileHeight, null);
+			}
+	}
+
+	public Dimension getPreferredScrollableViewportSize() {
+		return getPreferredSize();
+	}
+
+	public int getScrollableUnitIncrement(Rectangle visible, int orientation, int direction) {
+		return tileHeight;
+	}
+
+	public int getScrollableBlockIncrement(Rectangle visible, int orientation, int direction) {
+		return Math.max(tileHeight, visible.height / tileHeight * tileHeight);
+	}
+
+	public boolean getScrollableTracksViewportWidth() {
+		return true;
+	}
+
+	public boolean getScrollableTracksViewportHeight() {
+		return false;
+	}
+
+	private static final long serialVersionUID = 1L;
+}
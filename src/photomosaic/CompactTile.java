@@ -0,0 +1,213 @@
+package photomosaic;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The <code>CompactTile</code> class keeps the pixels of a picture in a
+ * database compactly, in one byte array with no <code>Picture</code> or
+ * <code>BufferedImage</code> around it: three bytes (R, G, B) per pixel, or
+ * one for a gray picture, since the pictures in a database are opaque. It
+ * may also compress them losslessly: each byte is replaced by its difference
+ * from the same byte of the pixel to its left (as PNG's Sub filter does,
+ * turning smooth areas into runs of small values), and the result is
+ * compressed by <code>Deflater</code> at its fastest level; it is kept only
+ * if it is smaller.
+ *
+ * Uncompressed, a tile takes 3/4 of the bytes of a picture's pixels (1/4
+ * for a gray picture, as does a gray <code>Picture</code>), and saves the
+ * objects around them; the large savings come from compressing (see
+ * <code>Model.setCompactTiles</code>), and depend on the pictures: smooth
+ * ones compress far more than detailed ones.
+ *
+ * The picture is rebuilt when it is needed (placed in a rendering or
+ * displayed), and kept only in the cache of scaled pictures (see
+ * <code>PhotomosaicInfo.getScaledPicture</code>). To be scaled, it is
+ * decoded into a buffer each thread reuses (see <code>loadShared</code>), so
+ * only the scaled picture is made and cached; a gray picture stays gray.
+ */
+class CompactTile implements PixelSource {
+	private final String name;
+	private final int width, height;
+	private final boolean gray, compressed;
+	private final byte[] data;
+
+	private CompactTile(String name, int width, int height, boolean gray, boolean compressed, byte[] data) {
+		this.name = name;
+		this.width = width;
+		this.height = height;
+		this.gray = gray;
+		this.compressed = compressed;
+		this.data = data;
+	}
+
+	/**
+	 * Returns the compact form of <code>p</code>.
+	 *
+	 * @param p
+	 *            specifies the picture
+	 * @param compress
+	 *            specifies whether to compress its pixels (if that makes them
+	 *            smaller)
+	 *
+	 * @return the compact form of the picture
+	 */
+	public static CompactTile of(Picture p, boolean compress) {
+		int width = p.getWidth(), height = p.getHeight();
+		byte[] bytes;
+		if (p.isGray())
+			bytes = p.getGrayPixels().clone();
+		else {
+			int[] pixels = p.getPixels();
+			bytes = new byte[3 * pixels.length];
+			for (int i = 0, j = 0; i < pixels.length; i++) {
+				int rgb = pixels[i];
+				bytes[j++] = (byte) (rgb >> 16);
+				bytes[j++] = (byte) (rgb >> 8);
+				bytes[j++] = (byte) rgb;
+			}
+		}
+		if (compress) {
+			byte[] packed = deflate(sub(bytes, p.isGray() ? 1 : 3, width));
+			if (packed.length < bytes.length)
+				return new CompactTile(p.getFileName(), width, height, p.isGray(), true, packed);
+		}
+		return new CompactTile(p.getFileName(), width, height, p.isGray(), false, bytes);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isGray() {
+		return gray;
+	}
+
+	/**
+	 * Returns the number of bytes this tile's pixels take up.
+	 */
+	public int getBytes() {
+		return data.length;
+	}
+
+	public Picture load() {
+		if (gray)
+			return Picture.wrapGray(name, width, height, Arrays.copyOf(bytes(), width * height));
+		return Picture.wrap(name, width, height, decode(new int[width * height]));
+	}
+
+	/**
+	 * Returns the picture, decoded into a buffer that this thread reuses each
+	 * time it calls this method (of gray pixels for a gray picture, otherwise
+	 * of ARGB pixels): the picture is valid only until the thread calls it
+	 * again, so it must not be kept or changed (e.g. it is only scaled).
+	 */
+	public Picture loadShared() {
+		if (gray)
+			return Picture.wrapGray(name, width, height, bytes());
+		int[] pixels = SHARED_PIXELS.get();
+		if (pixels.length != width * height)
+			SHARED_PIXELS.set(pixels = new int[width * height]);
+		return Picture.wrap(name, width, height, decode(pixels));
+	}
+
+	/**
+	 * Stores the pixels of the picture in <code>pixels</code>, as ARGB
+	 * values (row by row), and returns it.
+	 */
+	public int[] decode(int[] pixels) {
+		byte[] bytes = bytes();
+		if (gray)
+			for (int i = 0; i < width * height; i++) {
+				int v = bytes[i] & 255;
+				pixels[i] = Picture.pack(v, v, v);
+			}
+		else
+			for (int i = 0, j = 0; i < width * height; i++, j += 3)
+				pixels[i] = Picture.pack(bytes[j] & 255, bytes[j + 1] & 255, bytes[j + 2] & 255);
+		return pixels;
+	}
+
+	// Returns the (uncompressed) bytes of the pixels: the tile's own if it is
+	// not compressed (which must not be changed), otherwise decompressed into
+	// a buffer this thread reuses (exactly as long as them, if gray)
+	private byte[] bytes() {
+		if (!compressed)
+			return data;
+		int channels = gray ? 1 : 3, size = channels * width * height;
+		byte[] bytes = (gray ? SHARED_GRAY : SHARED_BYTES).get();
+		if (gray ? bytes.length != size : bytes.length < size)
+			(gray ? SHARED_GRAY : SHARED_BYTES).set(bytes = new byte[size]);
+		return unsub(inflate(data, bytes, size), channels, width, size);
+	}
+
+	// Returns the bytes with each replaced by its difference from the same
+	// byte of the pixel to its left (in the same row)
+	private static byte[] sub(byte[] bytes, int channels, int width) {
+		byte[] result = new byte[bytes.length];
+		int rowBytes = channels * width;
+		for (int row = 0; row < bytes.length; row += rowBytes)
+			for (int i = row; i < row + rowBytes; i++)
+				result[i] = (byte) (i - row < channels ? bytes[i] : bytes[i] - bytes[i - channels]);
+		return result;
+	}
+
+	// Undoes sub (in place) on the first size bytes
+	private static byte[] unsub(byte[] bytes, int channels, int width, int size) {
+		int rowBytes = channels * width;
+		for (int row = 0; row < size; row += rowBytes)
+			for (int i = row + channels; i < row + rowBytes; i++)
+				bytes[i] += bytes[i - channels];
+		return bytes;
+	}
+
+	private static byte[] deflate(byte[] bytes) {
+		Deflater deflater = DEFLATERS.get();
+		deflater.reset();
+		deflater.setInput(bytes);
+		deflater.finish();
+		byte[] buffer = new byte[bytes.length + 64];
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == buffer.length)
+				buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+			length += deflater.deflate(buffer, length, buffer.length - length);
+		}
+		return Arrays.copyOf(buffer, length);
+	}
+
+	// Decompresses packed into the first size bytes of bytes
+	private static byte[] inflate(byte[] packed, byte[] bytes, int size) {
+		Inflater inflater = INFLATERS.get();
+		inflater.reset();
+		inflater.setInput(packed);
+		try {
+			if (inflater.inflate(bytes, 0, size) != size)
+				throw new IllegalStateException("CompactTile: pixels are corrupt");
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("CompactTile: pixels are corrupt", e);
+		}
+		return bytes;
+	}
+
+	// Each thread reuses one Deflater/Inflater (they hold native buffers,
+	// costly to make for every tile)
+	private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal
+			.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+	private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+	// Each thread decodes into the same buffers (see bytes and loadShared)
+	private static final ThreadLocal<byte[]> SHARED_BYTES = ThreadLocal.withInitial(() -> new byte[0]);
+	private static final ThreadLocal<byte[]> SHARED_GRAY = ThreadLocal.withInitial(() -> new byte[0]);
+	private static final ThreadLocal<int[]> SHARED_PIXELS = ThreadLocal.withInitial(() -> new int[0]);
+}
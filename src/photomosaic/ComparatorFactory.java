@@ -34,7 +34,7 @@ import java.util.Comparator;
 
 class ByNameComparator implements Comparator<PhotomosaicInfo> {
 	public int compare(PhotomosaicInfo p1, PhotomosaicInfo p2) {
-		return p1.getPicture().getFileName().compareTo(p2.getPicture().getFileName());
+		return p1.getFileName().compareTo(p2.getFileName());
 	}
 }
 
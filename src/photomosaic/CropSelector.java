@@ -0,0 +1,143 @@
+package photomosaic;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The <code>CropSelector</code> class chooses the crops of a picture to make
+ * tiles from, so that one picture can give several tiles (see
+ * <code>PictureLoader.setCrops</code>). The crops have the shape of the tiles
+ * and are all the same size: the largest whose width and height are at most
+ * 2/(n+1) of the picture's, for n crops per side (so n evenly spaced crops
+ * across the picture overlap by half). They are placed either on an n by n
+ * grid, or as the n*n that have the most detail (the greatest variance of
+ * intensity) of windows slid a quarter of a crop at a time, overlapping each
+ * other by no more than half.
+ *
+ * Crops are compared only through the <code>IntegralImage</code> of the
+ * picture, so no pixels are copied for crops that are not chosen. A crop
+ * whose four quadrants have about the same average colors (within
+ * <code>PictureHash.COLOR_TOLERANCE</code>) as those of one already chosen
+ * (e.g. two crops of a clear sky) would be the same tile, so it is dropped.
+ */
+final class CropSelector {
+	private CropSelector() {
+	}
+
+	/**
+	 * Returns the size of the crops of a picture of the specified size, for
+	 * <code>perSide</code> crops per side of tiles of the specified size.
+	 */
+	public static Dimension cropSize(int width, int height, int tileWidth, int tileHeight, int perSide) {
+		double scale = Math.min(2.0 * width / ((perSide + 1) * tileWidth),
+				2.0 * height / ((perSide + 1) * tileHeight));
+		return new Dimension(Math.max(1, Math.min(width, (int) (tileWidth * scale))),
+				Math.max(1, Math.min(height, (int) (tileHeight * scale))));
+	}
+
+	/**
+	 * Returns the crops of the picture whose summed-area tables are
+	 * <code>image</code> to make tiles of the specified size from: at most
+	 * <code>perSide * perSide</code> of them, fewer if some are dropped as
+	 * the same as others.
+	 *
+	 * @param image
+	 *            specifies the summed-area tables of the picture
+	 * @param tileWidth
+	 *            specifies the width of the tiles (in pixels)
+	 * @param tileHeight
+	 *            specifies the height of the tiles (in pixels)
+	 * @param perSide
+	 *            specifies the number of crops per side (at least 1)
+	 * @param salient
+	 *            specifies whether to choose the crops with the most detail,
+	 *            rather than those on a grid
+	 *
+	 * @return the crops
+	 */
+	public static List<Rectangle> select(IntegralImage image, int tileWidth, int tileHeight, int perSide,
+			boolean salient) {
+		int width = image.getWidth(), height = image.getHeight();
+		Dimension size = cropSize(width, height, tileWidth, tileHeight, perSide);
+		ArrayList<Rectangle> candidates = new ArrayList<Rectangle>();
+		if (salient) {
+			for (int y : positions(height, size.height, Math.max(1, size.height / 4)))
+				for (int x : positions(width, size.width, Math.max(1, size.width / 4)))
+					candidates.add(new Rectangle(x, y, size.width, size.height));
+			candidates.sort(Comparator.comparingDouble(
+					(Rectangle r) -> image.getVariance(r.x, r.y, r.width, r.height)).reversed());
+		} else
+			for (int j = 0; j < perSide; j++)
+				for (int i = 0; i < perSide; i++)
+					candidates.add(new Rectangle(spaced(i, perSide, width, size.width),
+							spaced(j, perSide, height, size.height), size.width, size.height));
+
+		ArrayList<Rectangle> chosen = new ArrayList<Rectangle>();
+		ArrayList<int[]> chosenColors = new ArrayList<int[]>();
+		for (Rectangle r : candidates) {
+			if (chosen.size() == perSide * perSide)
+				break;
+			if (salient && overlapsChosen(r, chosen))
+				continue;
+			int[] colors = quadrantColors(image, r);
+			if (sameAsChosen(colors, chosenColors))
+				continue;
+			chosen.add(r);
+			chosenColors.add(colors);
+		}
+		return chosen;
+	}
+
+	// Returns the position of the i-th of n crops of the specified size evenly
+	// spaced across length (centered if there is one)
+	private static int spaced(int i, int n, int length, int size) {
+		return n == 1 ? (length - size) / 2 : (int) ((long) i * (length - size) / (n - 1));
+	}
+
+	// Returns the positions of crops of the specified size stepped across
+	// length (always including the last)
+	private static List<Integer> positions(int length, int size, int step) {
+		ArrayList<Integer> result = new ArrayList<Integer>();
+		for (int p = 0; p < length - size; p += step)
+			result.add(p);
+		result.add(length - size);
+		return result;
+	}
+
+	private static boolean overlapsChosen(Rectangle r, List<Rectangle> chosen) {
+		for (Rectangle c : chosen) {
+			Rectangle common = r.intersection(c);
+			if (!common.isEmpty() && 2L * common.width * common.height > (long) r.width * r.height)
+				return true;
+		}
+		return false;
+	}
+
+	// Returns the average colors of the quadrants of r (of all of r, if it is
+	// too small to have quadrants)
+	private static int[] quadrantColors(IntegralImage image, Rectangle r) {
+		if (r.width < 2 || r.height < 2)
+			return new int[] { image.getAverage(r.x, r.y, r.width, r.height) };
+		int w = r.width / 2, h = r.height / 2;
+		return new int[] { image.getAverage(r.x, r.y, w, h), image.getAverage(r.x + w, r.y, w, h),
+				image.getAverage(r.x, r.y + h, w, h), image.getAverage(r.x + w, r.y + h, w, h) };
+	}
+
+	private static boolean sameAsChosen(int[] colors, List<int[]> chosenColors) {
+		for (int[] other : chosenColors)
+			if (sameColors(colors, other))
+				return true;
+		return false;
+	}
+
+	private static boolean sameColors(int[] colors, int[] other) {
+		for (int q = 0; q < colors.length; q++)
+			for (int shift = 0; shift < 24; shift += 8)
+				if (Math.abs((colors[q] >> shift & 0xff) - (other[q] >> shift & 0xff)) > PictureHash.COLOR_TOLERANCE)
+					return false;
+		return true;
+	}
+}
@@ -0,0 +1,500 @@
+package photomosaic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The <code>DatabaseSnapshot</code> class saves a database of pictures to a
+ * file, and loads it back, so that a database need not be loaded again from
+ * its original files (decoding, scaling, filtering, and summarizing every
+ * one of them) each session. A snapshot stores each picture's pixels at the
+ * database size, its name, its metric summary, and its duplicate-finding
+ * hashes, along with the names of the metric and filter the database was
+ * made with.
+ *
+ * A snapshot can be opened in three ways; each reads the names, hashes, and
+ * summaries (all that matching needs) into memory, and differs in where the
+ * pictures' pixels are kept:
+ *
+ * <ul>
+ * <li><code>load</code> reads them into <code>TileAtlas</code>es (one, unless
+ * there are more pixels than an atlas can hold), in large sequential reads
+ * with no decoding.</li>
+ * <li><code>map</code> maps them into memory read-only, and reads each
+ * picture from the mapped file when it is needed. The operating system keeps
+ * one copy of a mapped file for all the programs mapping it, so several
+ * programs rendering with the same database share its pixels.</li>
+ * <li><code>open</code> leaves them on disk, and reads each picture from the
+ * file when it is needed, so a database can have far more pictures than
+ * memory can hold (the snapshot must then be closed when it is no longer
+ * used).</li>
+ * </ul>
+ *
+ * Pictures read when needed are kept only in the byte-bounded cache of
+ * scaled pictures (see <code>PhotomosaicInfo.getScaledPicture</code>).
+ *
+ * The format (big-endian) is a header: the magic number and version; the
+ * width, height, and number of pictures; the length of each summary; and the
+ * bytes per pixel (1 if all the pictures are gray, otherwise 4: ARGB). Then
+ * the features of each picture, all the same size: its flags (hashed),
+ * hashes, and summary. Then the pixels of each picture, all the same size.
+ * Then the names of the metric and filter, and of each picture.
+ */
+class DatabaseSnapshot implements Closeable {
+	private final int width, height;
+	private final String metricName, filterName;
+	private final ArrayList<PhotomosaicInfo> infos;
+	private final FileChannel channel;
+
+	private DatabaseSnapshot(int width, int height, String metricName, String filterName,
+			ArrayList<PhotomosaicInfo> infos, FileChannel channel) {
+		this.width = width;
+		this.height = height;
+		this.metricName = metricName;
+		this.filterName = filterName;
+		this.infos = infos;
+		this.channel = channel;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/** Returns the name of the metric the snapshot's summaries were made with. */
+	public String getMetricName() {
+		return metricName;
+	}
+
+	/** Returns the name of the filter the snapshot's pictures were filtered with. */
+	public String getFilterName() {
+		return filterName;
+	}
+
+	/** Returns the database of pictures the snapshot stores. */
+	public ArrayList<PhotomosaicInfo> getInfos() {
+		return infos;
+	}
+
+	/**
+	 * Saves the database of pictures <code>infos</code> (which must all be
+	 * the same size, and summarized by the same metric) to <code>file</code>.
+	 * The snapshot is written to a new file next to it, which then replaces
+	 * it: so <code>file</code> may be the snapshot the pictures are being read
+	 * from (mapped or open), which keeps reading the old file's pixels, and a
+	 * failed save leaves it as it was.
+	 *
+	 * @param file
+	 *            specifies the file to write
+	 * @param infos
+	 *            specifies the database of pictures
+	 * @param metricName
+	 *            specifies the name of the metric the summaries were made with
+	 * @param filterName
+	 *            specifies the name of the filter the pictures were filtered
+	 *            with
+	 *
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void save(Path file, List<PhotomosaicInfo> infos, String metricName, String filterName)
+			throws IOException {
+		Path absolute = file.toAbsolutePath();
+		Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+		try {
+			write(temp, infos, metricName, filterName);
+			try {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+	}
+
+	// Writes the snapshot of infos to file
+	private static void write(Path file, List<PhotomosaicInfo> infos, String metricName, String filterName)
+			throws IOException {
+		int width = infos.isEmpty() ? 0 : infos.get(0).getWidth();
+		int height = infos.isEmpty() ? 0 : infos.get(0).getHeight();
+		int summaryLength = infos.isEmpty() ? 0 : infos.get(0).getMetric().getSummary().length;
+		boolean gray = true;
+		for (PhotomosaicInfo info : infos)
+			gray &= info.isGray();
+		ByteBuffer argb = ByteBuffer.allocate(4 * width * height);
+		int[] pixels = new int[width * height];
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeInt(infos.size());
+			out.writeInt(summaryLength);
+			out.writeInt(gray ? 1 : 4);
+			for (PhotomosaicInfo info : infos) {
+				PictureHash hash = info.getHash();
+				out.writeByte(hash != null ? HASHED : 0);
+				out.write(hash != null ? hash.getContent() : new byte[HASH_BYTES]);
+				out.writeLong(hash != null ? hash.getDifference() : 0);
+				out.writeInt(hash != null ? hash.getColor() : 0);
+				for (int v : info.getMetric().getSummary())
+					out.writeInt(v);
+			}
+			for (PhotomosaicInfo info : infos) {
+				Picture p = info.readPicture();
+				if (gray)
+					out.write(p.getGrayPixels());
+				else {
+					// (getRegion expands gray pictures without changing them)
+					argb.clear();
+					argb.asIntBuffer().put(p.getRegion(0, 0, width, height, pixels));
+					out.write(argb.array());
+				}
+			}
+			out.writeUTF(metricName);
+			out.writeUTF(filterName);
+			for (PhotomosaicInfo info : infos)
+				out.writeUTF(info.getFileName());
+		}
+	}
+
+	/**
+	 * Returns the snapshot stored in <code>file</code>, with all its pictures
+	 * read into memory. The pictures' metrics are copies of
+	 * <code>metric</code>: with their saved summaries if <code>metric</code>
+	 * is the metric they were made with, otherwise with new summaries made by
+	 * <code>metric</code>.
+	 *
+	 * @param file
+	 *            specifies the file to read
+	 * @param metric
+	 *            specifies the metric for the database of pictures
+	 *
+	 * @return the snapshot
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read, or is not a snapshot
+	 */
+	public static DatabaseSnapshot load(Path file, Metric metric) throws IOException {
+		return read(file, metric, Mode.LOAD);
+	}
+
+	/**
+	 * Returns the snapshot stored in <code>file</code>, mapped into memory
+	 * read-only: its pictures' pixels are kept in the mapped file (see
+	 * <code>PixelSource</code>). The pictures' metrics are as for
+	 * <code>load</code>, though new summaries read every picture.
+	 *
+	 * @param file
+	 *            specifies the file to map
+	 * @param metric
+	 *            specifies the metric for the database of pictures
+	 *
+	 * @return the snapshot
+	 *
+	 * @throws IOException
+	 *             if the file cannot be mapped, or is not a snapshot
+	 */
+	public static DatabaseSnapshot map(Path file, Metric metric) throws IOException {
+		return read(file, metric, Mode.MAP);
+	}
+
+	/**
+	 * Returns the snapshot stored in <code>file</code>, with its pictures'
+	 * pixels left in the file (see <code>PixelSource</code>), which stays
+	 * open until the snapshot is closed. The pictures' metrics are as for
+	 * <code>load</code>, though new summaries read every picture.
+	 *
+	 * @param file
+	 *            specifies the file to open
+	 * @param metric
+	 *            specifies the metric for the database of pictures
+	 *
+	 * @return the snapshot
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read, or is not a snapshot
+	 */
+	public static DatabaseSnapshot open(Path file, Metric metric) throws IOException {
+		return read(file, metric, Mode.DISK);
+	}
+
+	/**
+	 * Closes the file of a snapshot that was opened (by <code>open</code>);
+	 * its pictures that are not cached can no longer be read.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (channel != null)
+			channel.close();
+	}
+
+	// Where the pixels of a snapshot's pictures are kept
+	private enum Mode {
+		LOAD, MAP, DISK
+	}
+
+	private static DatabaseSnapshot read(Path file, Metric metric, Mode mode) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			// The header
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			readFully(channel, header, 0, file);
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException("Not a picture database snapshot: " + file);
+			int width = header.getInt(), height = header.getInt(), count = header.getInt();
+			int summaryLength = header.getInt(), pixelBytes = header.getInt();
+			Layout layout = new Layout(width, height, count, summaryLength, pixelBytes);
+
+			// The names, after the pixels
+			channel.position(layout.namesOffset);
+			DataInputStream names = new DataInputStream(
+					new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+			String metricName = names.readUTF(), filterName = names.readUTF();
+			String[] pictureNames = new String[count];
+			for (int n = 0; n < count; n++)
+				pictureNames[n] = names.readUTF();
+			boolean sameMetric = metricName.equals(MetricFactory.getName(metric));
+
+			// The features (and pixels)
+			channel.position(HEADER_BYTES);
+			DataInputStream features = new DataInputStream(
+					new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+			ArrayList<PhotomosaicInfo> infos = new ArrayList<PhotomosaicInfo>(count);
+			// Loaded pixels are read straight into atlases, each holding a
+			// whole number of chunks
+			int size = width * height;
+			long fitAtlas = TileAtlas.MAX_PIXELS / Math.max(1, size);
+			int perChunk = (int) Math.max(1, Math.min(Math.min(count, mode == Mode.LOAD ? fitAtlas : count),
+					(mode == Mode.MAP ? MAX_MAP_BYTES : MAX_READ_BYTES) / Math.max(1, layout.tileBytes)));
+			int perAtlas = (int) Math.max(perChunk, fitAtlas / perChunk * perChunk);
+			ByteBuffer chunk = null;
+			TileAtlas atlas = null;
+			for (int n = 0; n < count; n++) {
+				int flags = features.readByte();
+				byte[] content = new byte[HASH_BYTES];
+				features.readFully(content);
+				long difference = features.readLong();
+				int color = features.readInt();
+				int[] summary = new int[summaryLength];
+				for (int i = 0; i < summaryLength; i++)
+					summary[i] = features.readInt();
+
+				PixelSource tile;
+				long position = layout.pixelsOffset + n * layout.tileBytes;
+				if (mode == Mode.DISK)
+					tile = new DiskTile(pictureNames[n], layout, file, channel, position);
+				else {
+					if (n % perChunk == 0) {
+						long bytes = Math.min(perChunk, count - n) * layout.tileBytes;
+						if (mode == Mode.MAP)
+							chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes);
+						else {
+							if (n % perAtlas == 0)
+								atlas = new TileAtlas(width, height, Math.min(perAtlas, count - n), pixelBytes == 1);
+							chunk = ByteBuffer.allocate((int) bytes);
+							readFully(channel, chunk, position, file);
+							chunk.flip();
+							if (atlas.isGray())
+								chunk.get(atlas.getGrayPixels(), (n % perAtlas) * size, (int) bytes);
+							else
+								chunk.asIntBuffer().get(atlas.getPixels(), (n % perAtlas) * size, (int) bytes / 4);
+						}
+					}
+					tile = mode == Mode.LOAD ? atlas.getTile(n % perAtlas, pictureNames[n])
+							: new BufferTile(pictureNames[n], layout, chunk, (int) ((n % perChunk) * layout.tileBytes));
+				}
+				PhotomosaicInfo info = new PhotomosaicInfo(metric.copy(), tile);
+				if (sameMetric)
+					info.getMetric().setSummary(summary);
+				else
+					info.getMetric().makeSummary(info.readPicture());
+				if ((flags & HASHED) != 0)
+					info.setHash(new PictureHash(content, difference, color));
+				infos.add(info);
+			}
+			DatabaseSnapshot snapshot = new DatabaseSnapshot(width, height, metricName, filterName, infos,
+					mode == Mode.DISK ? channel : null);
+			if (mode != Mode.DISK)
+				channel.close();
+			return snapshot;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	// Reads into buffer from the file, at position, until the buffer is full
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position, Path file)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position);
+			if (n == -1)
+				throw new IOException("Picture database snapshot is truncated: " + file);
+			position += n;
+		}
+	}
+
+	// The sizes and offsets of the sections of a snapshot
+	private static class Layout {
+		final int width, height, pixelBytes;
+		final long tileBytes, pixelsOffset, namesOffset;
+
+		Layout(int width, int height, int count, int summaryLength, int pixelBytes) throws IOException {
+			if (width < 0 || height < 0 || count < 0 || summaryLength < 0 || (pixelBytes != 1 && pixelBytes != 4))
+				throw new IOException("Picture database snapshot header is corrupt");
+			this.width = width;
+			this.height = height;
+			this.pixelBytes = pixelBytes;
+			this.tileBytes = (long) pixelBytes * width * height;
+			this.pixelsOffset = HEADER_BYTES + (long) count * (FEATURE_BYTES + 4L * summaryLength);
+			this.namesOffset = pixelsOffset + count * tileBytes;
+		}
+
+		// Returns the picture whose pixels are in b (from its position)
+		Picture picture(String name, ByteBuffer b) {
+			int size = width * height;
+			if (pixelBytes == 1) {
+				byte[] gray = new byte[size];
+				b.get(gray);
+				return Picture.wrapGray(name, width, height, gray);
+			}
+			int[] pixels = new int[size];
+			b.asIntBuffer().get(pixels);
+			return Picture.wrap(name, width, height, pixels);
+		}
+	}
+
+	// The pixels of a picture in a buffer (read or mapped from the file)
+	private static class BufferTile implements PixelSource {
+		private final String name;
+		private final Layout layout;
+		private final ByteBuffer buffer;
+		private final int offset;
+
+		BufferTile(String name, Layout layout, ByteBuffer buffer, int offset) {
+			this.name = name;
+			this.layout = layout;
+			this.buffer = buffer;
+			this.offset = offset;
+		}
+
+		public int getWidth() {
+			return layout.width;
+		}
+
+		public int getHeight() {
+			return layout.height;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isGray() {
+			return layout.pixelBytes == 1;
+		}
+
+		public Picture load() {
+			// A duplicate has its own position, so pictures can be loaded
+			// from the same buffer in several threads at once
+			ByteBuffer b = buffer.duplicate();
+			b.position(offset);
+			return layout.picture(name, b);
+		}
+	}
+
+	// The pixels of a picture in the (open) file
+	private static class DiskTile implements PixelSource {
+		private final String name;
+		private final Layout layout;
+		private final Path file;
+		private final FileChannel channel;
+		private final long position;
+
+		DiskTile(String name, Layout layout, Path file, FileChannel channel, long position) {
+			this.name = name;
+			this.layout = layout;
+			this.file = file;
+			this.channel = channel;
+			this.position = position;
+		}
+
+		public int getWidth() {
+			return layout.width;
+		}
+
+		public int getHeight() {
+			return layout.height;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isGray() {
+			return layout.pixelBytes == 1;
+		}
+
+		public Picture load() {
+			// Positional reads may be made in several threads at once
+			ByteBuffer b = ByteBuffer.allocate((int) layout.tileBytes);
+			try {
+				readFully(channel, b, position, file);
+			} catch (IOException e) {
+				throw new IllegalStateException("DatabaseSnapshot: picture " + name + " could not be read from " + file, e);
+			}
+			b.flip();
+			return layout.picture(name, b);
+		}
+	}
+
+	/** the first int of a snapshot ("PMDB") */
+	static final int MAGIC = 0x504d4442;
+
+	/** the version of the format */
+	static final int VERSION = 3;
+
+	/** the number of bytes in the header */
+	private static final int HEADER_BYTES = 7 * 4;
+
+	// The flag for a picture with hashes
+	private static final int HASHED = 1;
+
+	/** the number of bytes in a content hash (SHA-256) */
+	private static final int HASH_BYTES = 32;
+
+	// The number of bytes in a picture's features, besides its summary: its
+	// flags and hashes
+	private static final int FEATURE_BYTES = 1 + HASH_BYTES + 8 + 4;
+
+	/** the size of the buffers for reading/writing snapshots */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/** the most bytes of pixels mapped at once (each mapping must be under 2GB) */
+	private static final long MAX_MAP_BYTES = 1 << 30;
+
+	/** the most bytes of pixels read at once */
+	private static final long MAX_READ_BYTES = 1 << 24;
+}
@@ -38,7 +38,7 @@ import edu.cmu.cs.pattis.cs151xx.Decision;
 class NotShiftedDecision implements Decision {
 	public boolean isOK(Object o) {
 		PhotomosaicInfo p = ((PhotomosaicInfo) o);
-		return p.getPicture().getFileName().indexOf("shifted") == -1;
+		return p.getFileName().indexOf("shifted") == -1;
 	}
 }
 
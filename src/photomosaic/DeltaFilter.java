@@ -0,0 +1,25 @@
+package photomosaic;
+
+/**
+ * The <code>DeltaFilter</code> class adds a fixed amount (positive or
+ * negative) to each of the R, G, and B values of a pixel, clamping the
+ * results to [0,255]. It is a <code>LookupFilter</code>, so it fuses with
+ * other table filters in a <code>FilterChain</code>.
+ */
+class DeltaFilter extends LookupFilter {
+	/**
+	 * Constructs a filter that adds <code>deltas[0]</code>,
+	 * <code>deltas[1]</code>, and <code>deltas[2]</code> to the R, G, and B
+	 * values respectively.
+	 */
+	public DeltaFilter(int[] deltas) {
+		super(deltaTable(deltas[0]), deltaTable(deltas[1]), deltaTable(deltas[2]));
+	}
+
+	private static int[] deltaTable(int delta) {
+		int[] table = new int[256];
+		for (int v = 0; v < 256; v++)
+			table[v] = Math.max(0, Math.min(255, v + delta));
+		return table;
+	}
+}
@@ -0,0 +1,23 @@
+package photomosaic;
+
+/**
+ * The <code>DerivedTile</code> interface specifies a picture in a database
+ * made from another picture in it (e.g. filtered, see
+ * <code>ShiftedTile</code>, or mirrored or rotated, see
+ * <code>OrientedTile</code>) whose pixels are made only when it is needed.
+ * Its summary can often be made from the summary of the picture it is made
+ * from, without making its pixels.
+ */
+interface DerivedTile extends PixelSource {
+	/**
+	 * Returns the database entry of the picture this one is made from.
+	 */
+	public PhotomosaicInfo getBase();
+
+	/**
+	 * Returns a copy of <code>metric</code> with the summary of this picture,
+	 * made from the summary of the picture it is made from if possible
+	 * (otherwise from its pixels, which are then discarded).
+	 */
+	public Metric summarize(Metric metric);
+}
@@ -0,0 +1,130 @@
+package photomosaic;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The <code>DuplicateIndex</code> class indexes the hashes (see
+ * <code>PictureHash</code>) of the pictures in a database so that an
+ * incoming picture can be checked for being an exact or near copy of one
+ * already there without comparing it with every one of them. Exact copies
+ * are found in a hash set of content hashes. Near copies are found in a
+ * BK-tree of difference hashes: each node's children are keyed by their
+ * Hamming distance from it, so (by the triangle inequality) a search within
+ * distance d of a hash visits only the children whose key is within d of the
+ * hash's distance from the node. Its methods are synchronized, so pictures
+ * being loaded can be checked against it from worker threads.
+ */
+class DuplicateIndex {
+	// A node of the BK-tree
+	private static class Node {
+		final PictureHash hash;
+		final Node[] children = new Node[Long.SIZE + 1];
+
+		Node(PictureHash hash) {
+			this.hash = hash;
+		}
+	}
+
+	private final int maxDistance;
+	private final HashSet<ByteBuffer> contents = new HashSet<ByteBuffer>();
+	private Node root;
+
+	/**
+	 * Constructs an empty index.
+	 *
+	 * @param maxDistance
+	 *            specifies the most bits in which the difference hashes of
+	 *            near copies may differ, or -1 if only exact copies are
+	 *            duplicates
+	 */
+	public DuplicateIndex(int maxDistance) {
+		if (maxDistance < -1 || maxDistance > Long.SIZE)
+			throw new IllegalArgumentException("DuplicateIndex: maxDistance illegal: " + maxDistance);
+		this.maxDistance = maxDistance;
+	}
+
+	/**
+	 * Returns an index of the pictures in <code>infos</code> (those with
+	 * hashes).
+	 */
+	public static DuplicateIndex of(List<PhotomosaicInfo> infos, int maxDistance) {
+		DuplicateIndex index = new DuplicateIndex(maxDistance);
+		for (PhotomosaicInfo info : infos)
+			if (info.getHash() != null)
+				index.add(info.getHash());
+		return index;
+	}
+
+	/**
+	 * Adds <code>hash</code> to the index unless it is the hash of a
+	 * duplicate (an exact or near copy) of a picture already in it.
+	 *
+	 * @param hash
+	 *            specifies the hashes of the picture
+	 *
+	 * @return whether the picture was added (is not a duplicate)
+	 */
+	public synchronized boolean add(PictureHash hash) {
+		ByteBuffer content = ByteBuffer.wrap(hash.getContent());
+		if (contents.contains(content))
+			return false;
+		if (maxDistance >= 0 && findNearCopy(hash) != null)
+			return false;
+		contents.add(content);
+		insert(hash);
+		return true;
+	}
+
+	/**
+	 * Returns whether <code>hash</code> is the hash of a duplicate (an exact
+	 * or near copy) of a picture in the index.
+	 *
+	 * @param hash
+	 *            specifies the hashes of the picture
+	 *
+	 * @return whether the picture is a duplicate
+	 */
+	public synchronized boolean contains(PictureHash hash) {
+		return contents.contains(ByteBuffer.wrap(hash.getContent()))
+				|| maxDistance >= 0 && findNearCopy(hash) != null;
+	}
+
+	/**
+	 * Returns the hash of a near copy of the picture in the index, or
+	 * <code>null</code> if there is none.
+	 */
+	synchronized PictureHash findNearCopy(PictureHash hash) {
+		if (root == null)
+			return null;
+		ArrayList<Node> toVisit = new ArrayList<Node>();
+		toVisit.add(root);
+		while (!toVisit.isEmpty()) {
+			Node n = toVisit.remove(toVisit.size() - 1);
+			if (hash.isNearCopyOf(n.hash, maxDistance))
+				return n.hash;
+			int d = PictureHash.distance(hash.getDifference(), n.hash.getDifference());
+			for (int k = Math.max(0, d - maxDistance); k <= Math.min(Long.SIZE, d + maxDistance); k++)
+				if (n.children[k] != null)
+					toVisit.add(n.children[k]);
+		}
+		return null;
+	}
+
+	private void insert(PictureHash hash) {
+		if (root == null) {
+			root = new Node(hash);
+			return;
+		}
+		for (Node n = root;;) {
+			int d = PictureHash.distance(hash.getDifference(), n.hash.getDifference());
+			if (n.children[d] == null) {
+				n.children[d] = new Node(hash);
+				return;
+			}
+			n = n.children[d];
+		}
+	}
+}
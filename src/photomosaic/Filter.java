@@ -5,6 +5,9 @@ package photomosaic;
 /**
  *The <code>Filter</code> interface specifies one method that
  *  determines the filtered RGB values to use for any pixel in a picture.
+ *Large pictures are filtered in parallel strips, so implementations
+ *  must be safe to call from several threads at once (see
+ *  <code>BulkFilter</code> for filters that work on whole rows).
 */
 interface Filter {
   /**
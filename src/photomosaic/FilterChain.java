@@ -0,0 +1,165 @@
+package photomosaic;
+
+import java.util.ArrayList;
+
+/**
+ * The <code>FilterChain</code> class applies several filters in sequence.
+ * When it is built, neighboring filters are fused wherever possible so that
+ * the chain makes as few passes over a picture as it can: two
+ * <code>LookupFilter</code>s compose into one table,
+ * <code>LookupFilter</code>s around a <code>GrayScaleFilter</code> fold into
+ * its weight and output tables, and <code>IdentityFilter</code>s disappear.
+ * The filters that remain are its stages: a chain of point filters applies
+ * them all to each strip of rows in one pass, and any other chain makes one
+ * pass over the whole picture for each of them (see <code>filter</code>).
+ */
+class FilterChain implements BulkFilter {
+	private final BulkFilter[] stages;
+
+	private FilterChain(BulkFilter[] stages) {
+		this.stages = stages;
+	}
+
+	/**
+	 * Returns a filter equivalent to applying <code>filters</code> in order:
+	 * the fused filter itself if they fuse into one, otherwise a chain of the
+	 * fused stages.
+	 *
+	 * @param filters
+	 *            specifies the filters to apply, first to last
+	 *
+	 * @return a filter equivalent to applying all of them
+	 */
+	public static BulkFilter of(Filter... filters) {
+		ArrayList<BulkFilter> stages = new ArrayList<BulkFilter>();
+		for (Filter f : filters) {
+			BulkFilter next = BulkFilterAdapter.of(f);
+			BulkFilter[] nextStages = next instanceof FilterChain ? ((FilterChain) next).stages
+					: new BulkFilter[] { next };
+			for (BulkFilter stage : nextStages) {
+				BulkFilter fused = stages.isEmpty() ? null : fuse(stages.get(stages.size() - 1), stage);
+				if (fused != null)
+					stages.set(stages.size() - 1, fused);
+				else if (!(stage instanceof IdentityFilter))
+					stages.add(stage);
+			}
+		}
+		if (stages.isEmpty())
+			return new IdentityFilter();
+		if (stages.size() == 1)
+			return stages.get(0);
+		return new FilterChain(stages.toArray(new BulkFilter[stages.size()]));
+	}
+
+	/**
+	 * Returns one filter equivalent to applying <code>first</code> and then
+	 * <code>second</code>, or <code>null</code> if they cannot be fused.
+	 */
+	private static BulkFilter fuse(BulkFilter first, BulkFilter second) {
+		if (first instanceof IdentityFilter)
+			return second;
+		if (second instanceof IdentityFilter)
+			return first;
+		if (first instanceof LookupFilter && second instanceof LookupFilter)
+			return ((LookupFilter) first).then((LookupFilter) second);
+		if (first instanceof LookupFilter && second instanceof GrayScaleFilter)
+			return ((GrayScaleFilter) second).after((LookupFilter) first);
+		if (first instanceof GrayScaleFilter && second.isPointFilter())
+			return ((GrayScaleFilter) first).then(second);
+		return null;
+	}
+
+	/**
+	 * Returns the (already fused) filters this chain applies, first to last.
+	 *
+	 * @return the stages of this chain
+	 */
+	BulkFilter[] getStages() {
+		return stages;
+	}
+
+	/**
+	 * Returns the filtered value. When every stage is a point filter the
+	 * stages are applied to just the pixel at (x,y). Otherwise a later stage
+	 * may need any pixel from an earlier one, so all of <code>p</code> is
+	 * filtered into a copy first: that is correct, but far too slow to call
+	 * for each pixel; use <code>Picture.filter</code> instead.
+	 */
+	public int getFiltered(int colorToFilter, Picture p, int x, int y) throws IllegalArgumentException {
+		if (colorToFilter < RED || colorToFilter > BLUE)
+			throw new IllegalArgumentException("FilterChain: colorToFilter(" + colorToFilter + ") illegal");
+		int rgb;
+		if (isPointFilter()) {
+			int[] pixel = { p.getColor(x, y).getRGB() };
+			for (BulkFilter stage : stages)
+				stage.filterRows(pixel, pixel, 1, 1, 0, 1);
+			rgb = pixel[0];
+		} else
+			rgb = p.copy("", this).getColor(x, y).getRGB();
+		return (rgb >> (16 - 8 * colorToFilter)) & 255;
+	}
+
+	/**
+	 * Filters the required rows. When every stage is a point filter each
+	 * stage is applied to just these rows, one after another while they are
+	 * still in the cache. Otherwise a later stage may need rows outside this
+	 * range from an earlier one, so the rows must be all of the picture (see
+	 * <code>filter</code>, which <code>Picture.filter</code> uses).
+	 *
+	 * @throws IllegalArgumentException
+	 *             if some stage is not a point filter and the rows are not
+	 *             all of the picture
+	 */
+	public void filterRows(int[] src, int[] dst, int width, int height, int rowStart, int rowEnd)
+			throws IllegalArgumentException {
+		if (isPointFilter()) {
+			stages[0].filterRows(src, dst, width, height, rowStart, rowEnd);
+			for (int i = 1; i < stages.length; i++)
+				stages[i].filterRows(dst, dst, width, height, rowStart, rowEnd);
+			return;
+		}
+		if (rowStart != 0 || rowEnd != height)
+			throw new IllegalArgumentException("FilterChain: rows " + rowStart + "-" + rowEnd
+					+ " illegal for a chain that is not a point filter (height=" + height + ")");
+		filter(src, dst, width, height);
+	}
+
+	/**
+	 * Filters all the pixels in <code>src</code> into <code>dst</code> (which
+	 * may be the same array), one (parallel) pass over the whole picture for
+	 * each stage. Point stages work in place; the others read the previous
+	 * stage's pixels from one array and write to the other, using one scratch
+	 * array (made only if needed) besides <code>dst</code>. <code>src</code>
+	 * is never changed unless it is <code>dst</code>.
+	 */
+	void filter(int[] src, int[] dst, int width, int height) {
+		int[] current = src, scratch = null;
+		for (BulkFilter stage : stages) {
+			int[] to;
+			if (stage.isPointFilter())
+				to = current == src && src != dst ? dst : current;
+			else if (current != dst)
+				to = dst;
+			else {
+				if (scratch == null)
+					scratch = new int[dst.length];
+				to = scratch;
+			}
+			pass(stage, current, to, width, height);
+			current = to;
+		}
+		if (current != dst)
+			System.arraycopy(current, 0, dst, 0, width * height);
+	}
+
+	private static void pass(BulkFilter stage, int[] from, int[] to, int width, int height) {
+		ParallelRows.forEach(height, width, (rowStart, rowEnd) -> stage.filterRows(from, to, width, height, rowStart, rowEnd));
+	}
+
+	public boolean isPointFilter() {
+		for (BulkFilter stage : stages)
+			if (!stage.isPointFilter())
+				return false;
+		return true;
+	}
+}
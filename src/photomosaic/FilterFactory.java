@@ -30,77 +30,75 @@
 
 package photomosaic;
 
-import java.awt.Color;
-
-class DeltaFilter implements Filter {
-	private final int[] deltas;
-
-	public DeltaFilter(int[] deltas) {
-		this.deltas = deltas;
+class LighterFilter extends DeltaFilter {
+	public LighterFilter() {
+		super(new int[] { 25, 25, 25 });
 	}
+}
 
-	public int getFiltered(int colorToFilter, Picture p, int x, int y) throws IllegalArgumentException {
-		try {
-			Color c = p.getColor(x, y);
-			switch (colorToFilter) {
-			case 0:
-				return Math.max(0, Math.min(255, c.getRed() + deltas[0]));
-			case 1:
-				return Math.max(0, Math.min(255, c.getGreen() + deltas[1]));
-			case 2:
-				return Math.max(0, Math.min(255, c.getBlue() + deltas[2]));
-			default:
-				throw new IllegalArgumentException("IdentityFilter: colorToFilter(" + colorToFilter + ") illegal");
-			}
-		} catch (Exception e) {
-			throw new IllegalArgumentException("IdentityFilter: (" + x + "," + y + ") not in picture");
-		}
+class DarkerFilter extends DeltaFilter {
+	public DarkerFilter() {
+		super(new int[] { -25, -25, -25 });
 	}
 }
 
-class LighterFilter implements Filter {
-	private final DeltaFilter d = new DeltaFilter(new int[] { 25, 25, 25 });
-
-	public int getFiltered(int colorToFilter, Picture p, int x, int y) throws IllegalArgumentException {
-		return d.getFiltered(colorToFilter, p, x, y);
+class RedderFilter extends DeltaFilter {
+	public RedderFilter() {
+		super(new int[] { 25, 0, 0 });
 	}
 }
 
-class DarkerFilter implements Filter {
-	DeltaFilter d = new DeltaFilter(new int[] { -25, -25, -25 });
-
-	public int getFiltered(int colorToFilter, Picture p, int x, int y) throws IllegalArgumentException {
-		return d.getFiltered(colorToFilter, p, x, y);
+class GreenerFilter extends DeltaFilter {
+	public GreenerFilter() {
+		super(new int[] { 0, 25, 0 });
 	}
 }
 
-class RedderFilter implements Filter {
-	DeltaFilter d = new DeltaFilter(new int[] { 25, 0, 0 });
-
-	public int getFiltered(int colorToFilter, Picture p, int x, int y) throws IllegalArgumentException {
-		return d.getFiltered(colorToFilter, p, x, y);
+class BluerFilter extends DeltaFilter {
+	public BluerFilter() {
+		super(new int[] { 0, 0, 25 });
 	}
 }
 
-class GreenerFilter implements Filter {
-	DeltaFilter d = new DeltaFilter(new int[] { 0, 25, 0 });
+class BoxBlurFilter extends SeparableFilter {
+	public BoxBlurFilter() {
+		super(boxKernel(2), 0);
+	}
+}
 
-	public int getFiltered(int colorToFilter, Picture p, int x, int y) throws IllegalArgumentException {
-		return d.getFiltered(colorToFilter, p, x, y);
+class GaussianBlurFilter extends SeparableFilter {
+	public GaussianBlurFilter() {
+		super(gaussianKernel(1.0), 0);
 	}
 }
 
-class BluerFilter implements Filter {
-	DeltaFilter d = new DeltaFilter(new int[] { 0, 0, 25 });
+class SharpenFilter extends SeparableFilter {
+	public SharpenFilter() {
+		super(gaussianKernel(1.0), 100);
+	}
+}
 
-	public int getFiltered(int colorToFilter, Picture p, int x, int y) throws IllegalArgumentException {
-		return d.getFiltered(colorToFilter, p, x, y);
+class EdgeEnhanceFilter extends SeparableFilter {
+	public EdgeEnhanceFilter() {
+		super(boxKernel(1), 200);
 	}
 }
 
 class FilterFactory {
 
+	/**
+	 * Returns the filter with the specified name; several names joined by
+	 * <code>+</code> (e.g. <code>GrayScaleFilter+LighterFilter</code>) give a
+	 * <code>FilterChain</code> applying each filter in turn.
+	 */
 	public static Filter getFilter(String name) {
+		if (name.indexOf('+') != -1) {
+			String[] names = name.split("\\+");
+			Filter[] filters = new Filter[names.length];
+			for (int i = 0; i < names.length; i++)
+				filters[i] = getFilter(names[i].trim());
+			return FilterChain.of(filters);
+		}
 		try {
 			if (AVAILABLE_LIST.indexOf(name) == -1)
 				throw new Exception();
@@ -111,5 +109,6 @@ class FilterFactory {
 		}
 	}
 
-	public static final String AVAILABLE_LIST = "IdentityFilter GrayScaleFilter LighterFilter DarkerFilter RedderFilter GreenerFilter BluerFilter";
+	public static final String AVAILABLE_LIST = "IdentityFilter GrayScaleFilter LighterFilter DarkerFilter RedderFilter GreenerFilter BluerFilter"
+			+ " BoxBlurFilter GaussianBlurFilter SharpenFilter EdgeEnhanceFilter";
 }
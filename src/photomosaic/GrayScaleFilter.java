@@ -2,6 +2,7 @@ package photomosaic;
 
 
 import java.awt.Color;
+import java.util.Arrays;
 
 
 
@@ -14,8 +15,113 @@ import java.awt.Color;
  *  more red than blue: thus, most of the intensity that we perceive
  *  from a colored image comes from its green, then red, then blue
  *  intensities.
+ *The weighted sum is computed in fixed point from one table per color,
+ *  and the gray value is mapped through one output table per color, so
+ *  a <code>LookupFilter</code> applied before this filter (or any point
+ *  filter applied after it) can be folded into the tables: see
+ *  <code>after</code> and <code>then</code>.
 */
-class GrayScaleFilter implements Filter {
+class GrayScaleFilter implements BulkFilter {
+  public GrayScaleFilter ()
+  {
+    this(weightTable(0.222), weightTable(0.707), weightTable(0.071),
+         identityTable(), identityTable(), identityTable());
+  }
+  
+  
+  private GrayScaleFilter (int[] redWeight, int[] greenWeight, int[] blueWeight,
+                           int[] redOut,    int[] greenOut,    int[] blueOut)
+  {
+    this.redWeight   = redWeight;
+    this.greenWeight = greenWeight;
+    this.blueWeight  = blueWeight;
+    this.redOut      = redOut;
+    this.greenOut    = greenOut;
+    this.blueOut     = blueOut;
+  }
+  
+  
+  private static int[] weightTable (double weight)
+  {
+    int[] table = new int[256];
+    for (int v = 0; v < 256; v++)
+      table[v] = (int)Math.round(weight*v*(1<<SHIFT));
+    return table;
+  }
+  
+  
+  private static int[] identityTable ()
+  {
+    int[] table = new int[256];
+    for (int v = 0; v < 256; v++)
+      table[v] = v;
+    return table;
+  }
+  
+  
+  /**
+   * Returns a filter equivalent to applying <code>before</code> and then
+   *   this filter.
+   *
+   * @param before specifies the filter to apply first
+   *
+   * @return a single gray-scale filter for both
+  */
+  public GrayScaleFilter after (LookupFilter before)
+  {
+    int[] r = new int[256], g = new int[256], b = new int[256];
+    int[] beforeR = before.getTable(RED), beforeG = before.getTable(GREEN), beforeB = before.getTable(BLUE);
+    for (int v = 0; v < 256; v++) {
+      r[v] = redWeight  [beforeR[v]];
+      g[v] = greenWeight[beforeG[v]];
+      b[v] = blueWeight [beforeB[v]];
+    }
+    return new GrayScaleFilter(r,g,b, redOut,greenOut,blueOut);
+  }
+  
+  
+  /**
+   * Returns a filter equivalent to applying this filter and then
+   *   <code>next</code>, which must be a point filter: because this filter
+   *   produces only 256 different pixels, <code>next</code> is just applied
+   *   to each of them once, to build the new output tables.
+   *
+   * @param next specifies the (point) filter to apply second
+   *
+   * @return a single gray-scale filter for both
+   *
+   * @throws IllegalArgumentException if <code>next</code> is not a point
+   *   filter
+  */
+  public GrayScaleFilter then (BulkFilter next)
+    throws IllegalArgumentException
+  {
+    if (!next.isPointFilter())
+      throw new IllegalArgumentException("GrayScaleFilter: then("+next.getClass().getName()+") not a point filter");
+    int[] outputs = new int[256];
+    for (int v = 0; v < 256; v++)
+      outputs[v] = Picture.pack(redOut[v], greenOut[v], blueOut[v]);
+    next.filterRows(outputs, outputs, 256, 1, 0, 1);
+    int[] r = new int[256], g = new int[256], b = new int[256];
+    for (int v = 0; v < 256; v++) {
+      r[v] = (outputs[v]>>16) & 255;
+      g[v] = (outputs[v]>> 8) & 255;
+      b[v] =  outputs[v]      & 255;
+    }
+    return new GrayScaleFilter(redWeight,greenWeight,blueWeight, r,g,b);
+  }
+  
+  
+  /**
+   * Returns whether this filter produces only gray pixels (its output
+   *   tables, and so its R, G, and B values, are all the same).
+   *
+   * @return whether this filter produces only gray pixels
+  */
+  public boolean producesGray ()
+  {return Arrays.equals(redOut,greenOut) && Arrays.equals(redOut,blueOut);}
+  
+  
   /**
    * Returns the value to use for the specified color component in the
    *   specified pixel.
@@ -40,14 +146,38 @@ class GrayScaleFilter implements Filter {
   {
     try {
       Color c = p.getColor(x,y);
-      int i = (int)( 0.222*c.getRed() + 0.707*c.getGreen() + 0.071*c.getBlue() );
+      int i = (redWeight[c.getRed()] + greenWeight[c.getGreen()] + blueWeight[c.getBlue()]) >> SHIFT;
       switch(colorToFilter) {
-        case RED   : return i;    
-        case GREEN : return i;    
-        case BLUE  : return i;    
+        case RED   : return redOut  [i];    
+        case GREEN : return greenOut[i];    
+        case BLUE  : return blueOut [i];    
         default    : throw new IllegalArgumentException("GrayScaleFilter: colorToFilter("+colorToFilter+") illegal");
       }
     }catch (IllegalArgumentException e) //from p.getColor()
     {throw new IllegalArgumentException("GrayScaleFilter: ("+x+","+y+") not in picture");}    
   }
+
+
+  public void filterRows (int[] src, int[] dst, int width, int height, int rowStart, int rowEnd)
+  {
+    int[] redWeight = this.redWeight, greenWeight = this.greenWeight, blueWeight = this.blueWeight;
+    int[] redOut    = this.redOut,    greenOut    = this.greenOut,    blueOut    = this.blueOut;
+    for (int i = rowStart*width; i < rowEnd*width; i++) {
+      int rgb = src[i];
+      int g   = (redWeight[(rgb>>16)&255] + greenWeight[(rgb>>8)&255] + blueWeight[rgb&255]) >> SHIFT;
+      dst[i]  = Picture.pack(redOut[g], greenOut[g], blueOut[g]);
+    }
+  }
+  
+  
+  public boolean isPointFilter ()
+  {return true;}
+  
+  
+  //Weights are fixed point, with SHIFT fractional bits; they sum to 1.0,
+  //  so the weighted sum of three values in [0,255] is in [0,255]
+  private static final int SHIFT = 16;
+  
+  private final int[] redWeight, greenWeight, blueWeight;
+  private final int[] redOut,    greenOut,    blueOut;
 }
\ No newline at end of file
@@ -9,7 +9,7 @@ import java.awt.Color;
  *The <code>IdentityFilter</code> interface specifies one method that
  *  returns the same R, G, and B values as the pixel it is given.
 */
-class IdentityFilter implements Filter {
+class IdentityFilter implements BulkFilter {
   /**
    * Returns the value to use for the specified color component in the
    *   specified pixel.
@@ -43,4 +43,15 @@ class IdentityFilter implements Filter {
     }catch (IllegalArgumentException e) //from p.getColor()
     {throw new IllegalArgumentException("IdentityFilter: ("+x+","+y+") not in picture");}    
   }
+
+
+  public void filterRows (int[] src, int[] dst, int width, int height, int rowStart, int rowEnd)
+  {
+    if (src != dst)
+      System.arraycopy(src, rowStart*width, dst, rowStart*width, (rowEnd-rowStart)*width);
+  }
+  
+  
+  public boolean isPointFilter ()
+  {return true;}
 }
\ No newline at end of file
@@ -0,0 +1,319 @@
+package photomosaic;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * The <code>ImageDecoder</code> class decodes pictures with an
+ * <code>ImageIO</code> <code>ImageReader</code>, decoding only as much of
+ * them as is needed for the size they will be scaled to. A picture that
+ * will be scaled down to a small tile is decoded with source subsampling
+ * (keeping only every n-th pixel of every n-th row) so a large photograph
+ * never exists at full size in memory: decoding a 24 megapixel JPEG for a
+ * 20x20 tile keeps about 1/10000 of its pixels. The subsampling chosen is
+ * the coarsest that still leaves at least <code>OVERSAMPLE</code> times the
+ * target size in each direction, so the area-averaging scale that follows
+ * (in <code>Picture</code>) still has enough pixels to average for an
+ * accurate tile.
+ *
+ * Unlike <code>ImageIcon</code> (which decodes through the
+ * <code>Toolkit</code>'s single thread) several pictures may be decoded at
+ * once, in different threads.
+ */
+final class ImageDecoder {
+	private ImageDecoder() {
+	}
+
+	/**
+	 * Returns the picture stored in <code>input</code>, decoded at no less
+	 * than <code>OVERSAMPLE</code> times the specified size (or at its full
+	 * size if it is no larger than that); a width/height of
+	 * <code>Picture.NATURAL_SIZE</code> decodes it at its full width/height.
+	 * Returns <code>null</code> if no <code>ImageReader</code> can decode it.
+	 *
+	 * @param input
+	 *            specifies the picture's contents: anything
+	 *            <code>ImageIO.createImageInputStream</code> accepts (e.g. an
+	 *            <code>InputStream</code> or a <code>File</code>)
+	 * @param width
+	 *            specifies the width the picture will be scaled to (in pixels)
+	 * @param height
+	 *            specifies the height the picture will be scaled to (in
+	 *            pixels)
+	 *
+	 * @return the decoded picture (of its own type), or <code>null</code>
+	 *
+	 * @throws IOException
+	 *             if the picture cannot be decoded
+	 */
+	public static BufferedImage read(Object input, int width, int height) throws IOException {
+		return withReader(input, true, reader -> {
+			ImageReadParam param = reader.getDefaultReadParam();
+			int stepX = subsampling(reader.getWidth(0), width);
+			int stepY = subsampling(reader.getHeight(0), height);
+			if (stepX > 1 || stepY > 1)
+				param.setSourceSubsampling(stepX, stepY, 0, 0);
+			return reader.read(0, param);
+		});
+	}
+
+	/**
+	 * Returns the rectangle <code>region</code> of the picture stored in
+	 * <code>input</code>, decoded at full size; only that region is ever
+	 * stored in memory (though a reader may have to decode the rows above it
+	 * to reach it). Returns <code>null</code> if no <code>ImageReader</code>
+	 * can decode it.
+	 *
+	 * @param input
+	 *            specifies the picture's contents (as for <code>read</code>)
+	 * @param region
+	 *            specifies the region to decode (within the picture)
+	 *
+	 * @return the decoded region (of its own type), or <code>null</code>
+	 *
+	 * @throws IOException
+	 *             if the picture cannot be decoded
+	 */
+	public static BufferedImage readRegion(Object input, Rectangle region) throws IOException {
+		return withReader(input, true, reader -> {
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(region);
+			return reader.read(0, param);
+		});
+	}
+
+	/**
+	 * Returns the size of the picture stored in <code>input</code>, read from
+	 * its header without decoding it, or <code>null</code> if no
+	 * <code>ImageReader</code> can decode it.
+	 *
+	 * @param input
+	 *            specifies the picture's contents (as for <code>read</code>)
+	 *
+	 * @return the size of the picture, or <code>null</code>
+	 *
+	 * @throws IOException
+	 *             if the picture's header cannot be decoded
+	 */
+	public static Dimension size(Object input) throws IOException {
+		return withReader(input, true, reader -> new Dimension(reader.getWidth(0), reader.getHeight(0)));
+	}
+
+	/**
+	 * Returns the smallest thumbnail stored with the picture in
+	 * <code>encoded</code> that is at least the specified size and has the
+	 * picture's shape; scaling it gives a tile almost as good as scaling the
+	 * whole picture, for a few KB of decoding. The thumbnail a camera embeds
+	 * in a JPEG's EXIF data (see <code>exifThumbnail</code>) is found
+	 * directly, since <code>ImageIO</code>'s JPEG reader only reports JFIF
+	 * thumbnails; failing that, the thumbnails the <code>ImageReader</code>
+	 * reports are tried. Returns <code>null</code> if there is no such
+	 * thumbnail (or no <code>ImageReader</code> can decode the picture).
+	 *
+	 * @param encoded
+	 *            specifies the picture's contents
+	 * @param width
+	 *            specifies the width the picture will be scaled to (in pixels)
+	 * @param height
+	 *            specifies the height the picture will be scaled to (in
+	 *            pixels)
+	 *
+	 * @return the thumbnail, or <code>null</code>
+	 *
+	 * @throws IOException
+	 *             if the picture's thumbnails cannot be decoded
+	 */
+	public static BufferedImage readThumbnail(byte[] encoded, int width, int height) throws IOException {
+		if (width == Picture.NATURAL_SIZE || height == Picture.NATURAL_SIZE)
+			return null;
+		byte[] exif = exifThumbnail(encoded);
+		if (exif != null) {
+			Dimension picture = size(new ByteArrayInputStream(encoded));
+			BufferedImage thumbnail = picture == null ? null
+					: withReader(new ByteArrayInputStream(exif), true,
+							reader -> fits(reader.getWidth(0), reader.getHeight(0), picture.width, picture.height,
+									width, height) ? reader.read(0) : null);
+			if (thumbnail != null)
+				return thumbnail;
+		}
+		return withReader(new ByteArrayInputStream(encoded), false, reader -> {
+			if (!reader.readerSupportsThumbnails() || !reader.hasThumbnails(0))
+				return null;
+			int pictureWidth = reader.getWidth(0), pictureHeight = reader.getHeight(0);
+			int best = -1;
+			for (int t = 0; t < reader.getNumThumbnails(0); t++) {
+				int w = reader.getThumbnailWidth(0, t), h = reader.getThumbnailHeight(0, t);
+				if (fits(w, h, pictureWidth, pictureHeight, width, height) && (best == -1
+						|| (long) w * h < (long) reader.getThumbnailWidth(0, best) * reader.getThumbnailHeight(0, best)))
+					best = t;
+			}
+			return best == -1 ? null : reader.readThumbnail(0, best);
+		});
+	}
+
+	/**
+	 * Returns whether a thumbnail of size w x h can be scaled to the specified
+	 * size in place of a picture of the specified size: it is at least that
+	 * size, and not letterboxed/cropped to a different shape than the picture.
+	 */
+	private static boolean fits(int w, int h, int pictureWidth, int pictureHeight, int width, int height) {
+		return w >= width && h >= height && Math.abs((long) w * pictureHeight - (long) h * pictureWidth)
+				* SHAPE_TOLERANCE <= (long) w * pictureHeight;
+	}
+
+	/**
+	 * Returns the JPEG thumbnail embedded in the EXIF data of the JPEG
+	 * <code>jpeg</code> (the one a camera stores), or <code>null</code> if it
+	 * has none. The EXIF data is in an APP1 segment starting with
+	 * <code>Exif</code>: a TIFF structure whose second IFD (IFD1) describes
+	 * the thumbnail, whose bytes start at the offset in its tag 0x0201
+	 * (JPEGInterchangeFormat) and are as long as its tag 0x0202
+	 * (JPEGInterchangeFormatLength) says.
+	 *
+	 * @param jpeg
+	 *            specifies the contents of a picture (which need not be a
+	 *            JPEG)
+	 *
+	 * @return the contents of the thumbnail (a JPEG), or <code>null</code>
+	 */
+	static byte[] exifThumbnail(byte[] jpeg) {
+		if (jpeg.length < 4 || (jpeg[0] & 255) != 0xFF || (jpeg[1] & 255) != 0xD8)
+			return null;
+		// The segments before the image data: 0xFF, marker, 2-byte length
+		for (int at = 2; at + 4 <= jpeg.length && (jpeg[at] & 255) == 0xFF;) {
+			int marker = jpeg[at + 1] & 255, length = bigEndian(jpeg, at + 2, 2);
+			if (marker == 0xDA || marker == 0xD9 || length < 2)
+				return null;
+			int segment = at + 4, end = Math.min(jpeg.length, at + 2 + length);
+			if (marker == 0xE1 && end - segment >= 6 && jpeg[segment] == 'E' && jpeg[segment + 1] == 'x'
+					&& jpeg[segment + 2] == 'i' && jpeg[segment + 3] == 'f' && jpeg[segment + 4] == 0
+					&& jpeg[segment + 5] == 0)
+				return tiffThumbnail(jpeg, segment + 6, end);
+			at = end;
+		}
+		return null;
+	}
+
+	// Returns the thumbnail described by IFD1 of the TIFF structure in
+	// bytes[tiff, end), or null if there is none
+	private static byte[] tiffThumbnail(byte[] bytes, int tiff, int end) {
+		if (end - tiff < 8)
+			return null;
+		boolean little;
+		if (bytes[tiff] == 'I' && bytes[tiff + 1] == 'I')
+			little = true;
+		else if (bytes[tiff] == 'M' && bytes[tiff + 1] == 'M')
+			little = false;
+		else
+			return null;
+		// Skip IFD0 (2-byte count, 12-byte entries) to the offset of IFD1
+		long ifd0 = read(bytes, tiff, end, 4, 4, little);
+		long count0 = read(bytes, tiff, end, ifd0, 2, little);
+		long ifd1 = count0 < 0 ? -1 : read(bytes, tiff, end, ifd0 + 2 + 12 * count0, 4, little);
+		long count1 = ifd1 <= 0 ? -1 : read(bytes, tiff, end, ifd1, 2, little);
+		long offset = -1, length = -1;
+		for (long n = 0; n < count1; n++) {
+			long entry = ifd1 + 2 + 12 * n;
+			long tag = read(bytes, tiff, end, entry, 2, little);
+			if (tag == 0x0201)
+				offset = value(bytes, tiff, end, entry, little);
+			else if (tag == 0x0202)
+				length = value(bytes, tiff, end, entry, little);
+		}
+		if (offset <= 0 || length <= 0 || offset + length > end - tiff)
+			return null;
+		return Arrays.copyOfRange(bytes, (int) (tiff + offset), (int) (tiff + offset + length));
+	}
+
+	// Returns the (SHORT or LONG) value of the IFD entry at offset entry, or
+	// -1 if it is of another type or not in the TIFF structure
+	private static long value(byte[] bytes, int tiff, int end, long entry, boolean little) {
+		long type = read(bytes, tiff, end, entry + 2, 2, little);
+		return type == 3 ? read(bytes, tiff, end, entry + 8, 2, little)
+				: type == 4 ? read(bytes, tiff, end, entry + 8, 4, little) : -1;
+	}
+
+	// Returns the unsigned size-byte number at offset in the TIFF structure in
+	// bytes[tiff, end), or -1 if it is not in it
+	private static long read(byte[] bytes, int tiff, int end, long offset, int size, boolean little) {
+		if (offset < 0 || offset + size > end - tiff)
+			return -1;
+		int at = (int) (tiff + offset);
+		long value = 0;
+		for (int i = 0; i < size; i++)
+			value |= (long) (bytes[at + i] & 255) << (8 * (little ? i : size - 1 - i));
+		return value;
+	}
+
+	// Returns the unsigned big-endian size-byte number at bytes[at]
+	private static int bigEndian(byte[] bytes, int at, int size) {
+		int value = 0;
+		for (int i = 0; i < size; i++)
+			value = value << 8 | (bytes[at + i] & 255);
+		return value;
+	}
+
+	// What to do with an ImageReader (see withReader)
+	private interface ReaderTask<T> {
+		T run(ImageReader reader) throws IOException;
+	}
+
+	/**
+	 * Returns the result of <code>task</code> run on an
+	 * <code>ImageReader</code> for the picture in <code>input</code> (always
+	 * disposing of the reader and closing the input), or <code>null</code> if
+	 * no reader can decode it.
+	 */
+	private static <T> T withReader(Object input, boolean ignoreMetadata, ReaderTask<T> task) throws IOException {
+		ImageInputStream in = ImageIO.createImageInputStream(input);
+		if (in == null)
+			return null;
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext())
+				return null;
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, ignoreMetadata);
+				return task.run(reader);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the coarsest subsampling (keep every n-th pixel) of
+	 * <code>size</code> pixels that keeps at least <code>OVERSAMPLE</code>
+	 * times <code>target</code> of them.
+	 */
+	static int subsampling(int size, int target) {
+		if (target == Picture.NATURAL_SIZE || target <= 0)
+			return 1;
+		return Math.max(1, size / (OVERSAMPLE * target));
+	}
+
+	/**
+	 * how many times the target size (at least) a subsampled picture keeps in
+	 * each direction, for the area-averaging scale to the target size
+	 */
+	static final int OVERSAMPLE = 2;
+
+	/**
+	 * a thumbnail has the picture's shape if their aspect ratios differ by
+	 * less than 1/<code>SHAPE_TOLERANCE</code>
+	 */
+	static final int SHAPE_TOLERANCE = 50;
+}
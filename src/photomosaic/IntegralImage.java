@@ -0,0 +1,90 @@
+package photomosaic;
+
+/**
+ * The <code>IntegralImage</code> class stores the summed-area tables of a
+ * picture: for each (x,y), the sums of the R, G, and B values, of the
+ * intensities, and of the squared intensities of the pixels above and to the
+ * left of it. After one pass over the picture to make them, the average color
+ * and the variance of the intensity (how much detail there is) of any
+ * rectangle of it are found from four entries of each table, however large
+ * the rectangle: so many overlapping crops of one picture can be compared
+ * without examining their pixels again.
+ */
+class IntegralImage {
+	private final int width, height;
+	private final long[] red, green, blue, intensity, squares;
+
+	/**
+	 * Constructs the summed-area tables of <code>p</code>.
+	 */
+	public IntegralImage(Picture p) {
+		width = p.getWidth();
+		height = p.getHeight();
+		int stride = width + 1, size = stride * (height + 1);
+		red = new long[size];
+		green = new long[size];
+		blue = new long[size];
+		intensity = new long[size];
+		squares = new long[size];
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			p.getRow(y, row);
+			long r = 0, g = 0, b = 0, i = 0, s = 0;
+			for (int x = 0, above = y * stride + 1, at = above + stride; x < width; x++, above++, at++) {
+				int rgb = row[x];
+				int pr = (rgb >> 16) & 255, pg = (rgb >> 8) & 255, pb = rgb & 255, pi = (pr + pg + pb) / 3;
+				red[at] = red[above] + (r += pr);
+				green[at] = green[above] + (g += pg);
+				blue[at] = blue[above] + (b += pb);
+				intensity[at] = intensity[above] + (i += pi);
+				squares[at] = squares[above] + (s += pi * pi);
+			}
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the average color of the rectangle of the picture with upper
+	 * left corner (x,y) and the specified size, as a packed RGB value.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the rectangle is empty or not in the picture
+	 */
+	public int getAverage(int x, int y, int w, int h) throws IllegalArgumentException {
+		long area = area(x, y, w, h);
+		return Picture.pack((int) (sum(red, x, y, w, h) / area), (int) (sum(green, x, y, w, h) / area),
+				(int) (sum(blue, x, y, w, h) / area));
+	}
+
+	/**
+	 * Returns the variance of the intensities of the rectangle of the picture
+	 * with upper left corner (x,y) and the specified size.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the rectangle is empty or not in the picture
+	 */
+	public double getVariance(int x, int y, int w, int h) throws IllegalArgumentException {
+		long area = area(x, y, w, h);
+		double mean = (double) sum(intensity, x, y, w, h) / area;
+		return (double) sum(squares, x, y, w, h) / area - mean * mean;
+	}
+
+	private long area(int x, int y, int w, int h) throws IllegalArgumentException {
+		if (x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > width || y + h > height)
+			throw new IllegalArgumentException("IntegralImage: rectangle illegal: " + x + "/" + w + ":" + y + "/" + h
+					+ "(picture's size=" + width + ":" + height + ")");
+		return (long) w * h;
+	}
+
+	private long sum(long[] table, int x, int y, int w, int h) {
+		int stride = width + 1, top = y * stride + x, bottom = (y + h) * stride + x;
+		return table[bottom + w] - table[bottom] - table[top + w] + table[top];
+	}
+}
@@ -40,17 +40,23 @@
 package photomosaic;
 
 
-import java.awt.Color;
 
 
 
 class IntensityMetric implements Metric {
 
   private int averageIntensity;
+  //The least and greatest R, G, and B values summarized (unknown: 0 to 255)
+  private int[] ranges = {0,255, 0,255, 0,255};
   
 
   public Metric copy()
-  {return new IntensityMetric();}
+  {
+    IntensityMetric m = new IntensityMetric();
+    m.averageIntensity = averageIntensity;
+    m.ranges = ranges.clone();
+    return m;
+  }
   
   
   public void makeSummary(Picture p)
@@ -60,17 +66,74 @@ class IntensityMetric implements Metric {
   public void makeSummary(Picture p, int rowStart, int columnStart,  int width, int height)
   {
    int sum = 0;
-   for (int x = columnStart; x < columnStart+width; x++)
+   int[] ranges     = {255,0, 255,0, 255,0};
+   int pictureWidth = p.getWidth();
+   byte[] gray      = p.getGrayPixels();
+   if (gray != null) {  //A gray value is its own intensity
+     for (int y = rowStart; y < rowStart+height; y++)
+       for (int x = 0, i = y*pictureWidth + columnStart; x < width; x++, i++) {
+         int v = gray[i] & 255;
+         sum += v;
+         ranges[0] = Math.min(ranges[0],v);
+         ranges[1] = Math.max(ranges[1],v);
+       }
+     ranges[2] = ranges[4] = ranges[0];
+     ranges[3] = ranges[5] = ranges[1];
+   }
+   else {
+     int[] pixels = p.getPixels();
      for (int y = rowStart; y < rowStart+height; y++) {
-       Color rgb     = p.getColor(x,y);
-       int intensity = (rgb.getRed() + rgb.getGreen() + rgb.getBlue() ) / 3;
-       sum += intensity;
-    }
+       int i = y*pictureWidth + columnStart;
+       for (int x = 0; x < width; x++, i++) {
+         int rgb       = pixels[i];
+         int r = (rgb>>16)&255, g = (rgb>>8)&255, b = rgb&255;
+         sum += (r + g + b) / 3;
+         ranges[0] = Math.min(ranges[0],r);  ranges[1] = Math.max(ranges[1],r);
+         ranges[2] = Math.min(ranges[2],g);  ranges[3] = Math.max(ranges[3],g);
+         ranges[4] = Math.min(ranges[4],b);  ranges[5] = Math.max(ranges[5],b);
+       }
+     }
+   }
     
     averageIntensity = sum/(width*height);
+    this.ranges      = ranges;
   }
  
  
+  //Each pixel's intensity (rounded down) is shifted by the same amount only
+  //if no color is clamped and the colors are shifted by amounts summing to a
+  //multiple of 3
+  public boolean makeSummary(Metric m, LookupFilter f)
+  {
+    IntensityMetric base = (IntensityMetric)m;
+    if (!f.shiftsWithin(base.ranges))
+      return false;
+    int total = f.getDelta(Filter.RED) + f.getDelta(Filter.GREEN) + f.getDelta(Filter.BLUE);
+    if (total % 3 != 0)
+      return false;
+    averageIntensity = base.averageIntensity + total/3;
+    ranges           = RGBMetric.shift(base.ranges, f);
+    return true;
+  }
+ 
+ 
+  //The average does not depend on where the pixels are
+  public void makeSummary(Metric m, Orientation o)
+  {setSummary(m.getSummary());}
+ 
+ 
   public double distanceTo(Metric m)
   {return Math.abs(averageIntensity-((IntensityMetric)m).averageIntensity);}
+
+  public int[] getSummary()
+  {return new int[] {averageIntensity, ranges[0],ranges[1], ranges[2],ranges[3], ranges[4],ranges[5]};}
+
+
+  //A summary saved without the ranges leaves them unknown
+  public void setSummary(int[] summary)
+  {
+    averageIntensity = summary[0];
+    ranges = summary.length >= 7 ? new int[] {summary[1],summary[2], summary[3],summary[4], summary[5],summary[6]}
+                                 : new int[] {0,255, 0,255, 0,255};
+  }
 }
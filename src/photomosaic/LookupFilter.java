@@ -0,0 +1,156 @@
+package photomosaic;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * The <code>LookupFilter</code> class is a point filter that maps each of the
+ * R, G, and B values of a pixel independently, through a 256-entry table per
+ * color. Any filter of that kind (e.g. <code>DeltaFilter</code>) can be
+ * compiled into one, and two of them applied in sequence compose into a single
+ * table lookup, so a chain of them costs one pass over the picture.
+ */
+class LookupFilter implements BulkFilter {
+	private final int[] red, green, blue;
+
+	/**
+	 * Constructs a filter from the table for each color: the filtered value of
+	 * a pixel's R value <code>r</code> is <code>red[r]</code>, etc.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a table does not have 256 entries, each in [0,255]
+	 */
+	public LookupFilter(int[] red, int[] green, int[] blue) throws IllegalArgumentException {
+		this.red = checkTable(red);
+		this.green = checkTable(green);
+		this.blue = checkTable(blue);
+	}
+
+	private static int[] checkTable(int[] table) throws IllegalArgumentException {
+		if (table.length != 256)
+			throw new IllegalArgumentException("LookupFilter: table length(" + table.length + ") illegal");
+		for (int v : table)
+			if (v < 0 || v > 255)
+				throw new IllegalArgumentException("LookupFilter: table value(" + v + ") illegal");
+		return table;
+	}
+
+	/**
+	 * Returns the table used for the specified color; it must not be changed.
+	 *
+	 * @param colorToFilter
+	 *            specifies the color: 0 is red, 1 is green, 2 is blue
+	 *
+	 * @return the table used for the specified color
+	 */
+	int[] getTable(int colorToFilter) {
+		switch (colorToFilter) {
+		case RED:
+			return red;
+		case GREEN:
+			return green;
+		case BLUE:
+			return blue;
+		default:
+			throw new IllegalArgumentException("LookupFilter: colorToFilter(" + colorToFilter + ") illegal");
+		}
+	}
+
+	/**
+	 * Returns a filter equivalent to applying this filter and then
+	 * <code>next</code>.
+	 *
+	 * @param next
+	 *            specifies the filter to apply second
+	 *
+	 * @return a single table filter for both
+	 */
+	public LookupFilter then(LookupFilter next) {
+		int[] r = new int[256], g = new int[256], b = new int[256];
+		for (int v = 0; v < 256; v++) {
+			r[v] = next.red[red[v]];
+			g[v] = next.green[green[v]];
+			b[v] = next.blue[blue[v]];
+		}
+		return new LookupFilter(r, g, b);
+	}
+
+	/**
+	 * Returns the amount the table for the specified color adds to a value
+	 * (clamping the result to [0,255]), or <code>NOT_DELTA</code> if it does
+	 * not add a fixed amount.
+	 *
+	 * @param colorToFilter
+	 *            specifies the color: 0 is red, 1 is green, 2 is blue
+	 *
+	 * @return the amount the table adds, or <code>NOT_DELTA</code>
+	 */
+	public int getDelta(int colorToFilter) {
+		int[] table = getTable(colorToFilter);
+		int delta = table[255] < 255 ? table[255] - 255 : table[0];
+		for (int v = 0; v < 256; v++)
+			if (table[v] != Math.max(0, Math.min(255, v + delta)))
+				return NOT_DELTA;
+		return delta;
+	}
+
+	/**
+	 * Returns whether this filter adds a fixed amount to each color (see
+	 * <code>getDelta</code>) without clamping any value in the specified
+	 * ranges: then the average of filtered values is exactly the filtered
+	 * average.
+	 *
+	 * @param ranges
+	 *            specifies the least and greatest R values, then G, then B
+	 *            (6 values)
+	 *
+	 * @return whether this filter shifts every value in the ranges unclamped
+	 */
+	public boolean shiftsWithin(int[] ranges) {
+		for (int c = RED; c <= BLUE; c++) {
+			int delta = getDelta(c);
+			if (delta == NOT_DELTA || ranges[2 * c] + delta < 0 || ranges[2 * c + 1] + delta > 255)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether this filter maps gray pixels to gray pixels (its tables
+	 * are all the same).
+	 *
+	 * @return whether this filter maps gray pixels to gray pixels
+	 */
+	public boolean preservesGray() {
+		return Arrays.equals(red, green) && Arrays.equals(red, blue);
+	}
+
+	public int getFiltered(int colorToFilter, Picture p, int x, int y) throws IllegalArgumentException {
+		Color c = p.getColor(x, y);
+		switch (colorToFilter) {
+		case RED:
+			return red[c.getRed()];
+		case GREEN:
+			return green[c.getGreen()];
+		case BLUE:
+			return blue[c.getBlue()];
+		default:
+			throw new IllegalArgumentException("LookupFilter: colorToFilter(" + colorToFilter + ") illegal");
+		}
+	}
+
+	public void filterRows(int[] src, int[] dst, int width, int height, int rowStart, int rowEnd) {
+		int[] red = this.red, green = this.green, blue = this.blue;
+		for (int i = rowStart * width; i < rowEnd * width; i++) {
+			int rgb = src[i];
+			dst[i] = Picture.pack(red[(rgb >> 16) & 255], green[(rgb >> 8) & 255], blue[rgb & 255]);
+		}
+	}
+
+	public boolean isPointFilter() {
+		return true;
+	}
+
+	/** the value of <code>getDelta</code> for a table that is not a shift */
+	public static final int NOT_DELTA = Integer.MIN_VALUE;
+}
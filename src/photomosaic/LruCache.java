@@ -0,0 +1,112 @@
+package photomosaic;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The <code>LruCache</code> class maps keys to values while the values take
+ * up no more than a fixed number of bytes in total: storing a value that
+ * would exceed the capacity first evicts the least recently used values. All
+ * its methods may be called from several threads at once.
+ */
+class LruCache<K, V> {
+	private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+	private long capacity;
+	private long size;
+
+	/**
+	 * Constructs an empty cache.
+	 *
+	 * @param capacity
+	 *            specifies the most bytes the values may take up
+	 */
+	public LruCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the value for <code>key</code> (making it the most recently
+	 * used), or <code>null</code> if it is not in the cache.
+	 */
+	public synchronized V get(K key) {
+		Entry<V> e = map.get(key);
+		return e == null ? null : e.value;
+	}
+
+	/**
+	 * Stores the value for <code>key</code>, evicting the least recently used
+	 * values until it fits. A value bigger than the whole cache is not stored.
+	 *
+	 * @param key
+	 *            specifies the key
+	 * @param value
+	 *            specifies the value
+	 * @param bytes
+	 *            specifies how many bytes the value takes up
+	 */
+	public synchronized void put(K key, V value, long bytes) {
+		Entry<V> old = map.remove(key);
+		if (old != null)
+			size -= old.bytes;
+		if (bytes > capacity)
+			return;
+		map.put(key, new Entry<V>(value, bytes));
+		size += bytes;
+		evict();
+	}
+
+	/**
+	 * Removes the value for <code>key</code>, if it is in the cache.
+	 */
+	public synchronized void remove(K key) {
+		Entry<V> old = map.remove(key);
+		if (old != null)
+			size -= old.bytes;
+	}
+
+	/**
+	 * Removes all the values.
+	 */
+	public synchronized void clear() {
+		map.clear();
+		size = 0;
+	}
+
+	/**
+	 * Changes the most bytes the values may take up, evicting the least
+	 * recently used values if they no longer fit.
+	 */
+	public synchronized void setCapacity(long capacity) {
+		this.capacity = capacity;
+		evict();
+	}
+
+	public synchronized long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns how many bytes the values take up.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	private void evict() {
+		for (Iterator<Map.Entry<K, Entry<V>>> i = map.entrySet().iterator(); size > capacity && i.hasNext();) {
+			size -= i.next().getValue().bytes;
+			i.remove();
+		}
+	}
+
+	private static class Entry<V> {
+		Entry(V value, long bytes) {
+			this.value = value;
+			this.bytes = bytes;
+		}
+
+		final V value;
+		final long bytes;
+	}
+}
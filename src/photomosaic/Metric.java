@@ -27,6 +27,22 @@
 //   2) x.distanceTo(y) = y.distanceTo(x)
 //   3) x.distanceTo(y) + y.distanceTo(z) >= x.distanceTo(z)
 //
+// The getSummary/setSummary methods get/set the values a makeSummary method
+// computed, as an array of ints, so summaries can be saved and restored
+// without examining the picture again.
+//
+// The makeSummary method given a metric (of the same class) and a point
+// filter that maps each color through a table computes, without examining
+// any picture, the summary of a picture made by filtering the one the metric
+// summarizes, and returns whether it could (if not, the summary must be made
+// from the picture's pixels). It can only for a filter that adds a fixed
+// amount to each color (see LookupFilter.getDelta) that clamps no value in
+// the ranges of colors the summary records (amounts that, for an
+// IntensityMetric, must sum to a multiple of 3): the summary it computes is
+// then exact. The makeSummary method given a metric and an Orientation does
+// the same for the picture mirrored and/or rotated: exactly for pictures
+// whose width and height are even.
+//
 // Future Plans   : JavaDoc Comments
 //
 // Program History:
@@ -46,5 +62,13 @@ interface Metric {
 
 	public void makeSummary(Picture p, int rowStart, int columnStart, int width, int height);
 
+	public boolean makeSummary(Metric m, LookupFilter f);
+
+	public void makeSummary(Metric m, Orientation o);
+
 	public double distanceTo(Metric m);
+
+	public int[] getSummary();
+
+	public void setSummary(int[] summary);
 }
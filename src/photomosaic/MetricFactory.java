@@ -57,6 +57,15 @@ class MetricFactory {
 		}
 	}
 
+	/**
+	 * Returns the name of the metric (as used by getMetric).
+	 */
+	public static String getName(Metric m) {
+		if (m instanceof QuadMetric)
+			return "Quad" + getName(((QuadMetric) m).getQuadrantMetric());
+		return m.getClass().getSimpleName();
+	}
+
 	public static final String AVAILABLE_LIST = "IntensityMetric QuadIntensityMetric RGBMetric QuadRGBMetric";
 
 }
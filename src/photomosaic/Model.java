@@ -2,11 +2,20 @@ package photomosaic;
 
 import java.awt.Dimension;
 import java.awt.Point;
+import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import javax.imageio.ImageIO;
 import javax.swing.JFileChooser;
@@ -20,19 +29,42 @@ public class Model {
 	private View view;
 	/** a message left by whatever method executed most recently, indicating its status */
 	private String message;
-	/** the database of pictures to use for rendering */
+	/** the database of pictures to use for rendering (the pixels of those kept in memory are packed in TileAtlases, one per batch loaded) */
 	private ArrayList<PhotomosaicInfo> info = new ArrayList<PhotomosaicInfo>();
 	/** the filter to apply to all incoming pictures */
 	private Filter filter;
+	/** the name of that filter (recorded in saved databases of pictures) */
+	private String filterName;
 	/** the metric to use for evaluating pictures */
 	private Metric metric;
 	/** the picture to be rendered */
 	private Picture picToRender;
+	/** the picture to be rendered, when it is too large to decode all at once (then picToRender is null) */
+	private StreamedPicture streamedToRender;
 	/** the rendered picture */
 	private Picture renderedPicture;
+	/** the window displaying the database of pictures (once it is displayed) */
+	private CatalogViewer catalog;
+	/** the folder the database of pictures is kept in sync with (once one is chosen) */
+	private PictureFolder folder;
+	/** the saved database of pictures whose pictures are read from its file as needed (once one is opened) */
+	private DatabaseSnapshot openSnapshot;
+	/** whether to load pictures from the thumbnails embedded in their files */
+	private boolean useThumbnails;
+	/** the most bits the perceptual hashes of near copies differ in (-1: drop only exact copies) */
+	private int duplicateDistance = -1;
+	/** whether the pixels of pictures in the database are kept compactly (see CompactTile), and compressed */
+	private boolean compactTiles, compressTiles;
+	/** how many crops per side each loaded picture gives (0: the whole picture), and whether they are where it has the most detail */
+	private int cropsPerSide;
+	private boolean salientCrops;
+
+	/** the suffix of the names of files storing saved databases of pictures */
+	private static final String SNAPSHOT_SUFFIX = ".pmdb";
 
 	public Model(Filter filter, Metric metric, View v) {
 		this.filter = filter;
+		this.filterName = filter.getClass().getSimpleName();
 		this.metric = metric;
 		this.view = v;
 	}
@@ -60,12 +92,8 @@ public class Model {
 	 *            The height that the loaded pictures should be scaled to.
 	 */
 	public void loadMoreInPictureDatabase(int width, int height) {
-		if (width <= 0 || height <= 0 || (!info.isEmpty()
-				&& (width != info.get(0).getPicture().getWidth() || height != info.get(0).getPicture().getHeight()))) {
-			message = "Unable to load pictures\nWidth: " + width + ", Height: " + height;
-			view.update();
+		if (!canLoadInPictureDatabase(width, height))
 			return;
-		}
 		final String seperator = "|";
 		FileSelector selector = FileSelector.getFileNamesSelector("Image Selector", "Open", ".jpg .jpeg .gif .png",
 				seperator);
@@ -75,27 +103,279 @@ public class Model {
 		}
 		/* The file names */
 		String[] fileNames = selected.split("\\" + seperator);
-		// Create and add the new PhotomosaicInfos to the ArrayList "info"
-		this.message = "Attempting to load " + fileNames.length + " pictures";
-		view.update();
-		for (int i = 0; i < fileNames.length; i++) {
-			Picture p = new Picture(fileNames[i], width, height);
-			p.filter(filter);
-			metric.makeSummary(p);
-			info.add(new PhotomosaicInfo(metric.copy(), p));
-			if (i % 50 == 0) {
-				message = "  Loaded " + i + " pictures";
+		ArrayList<Path> files = new ArrayList<Path>(fileNames.length);
+		for (String fileName : fileNames)
+			files.add(Paths.get(fileName));
+		loadInPictureDatabase(files, width, height);
+	}
+
+	/**
+	 * Lets the user select an archive (a .zip or .jar file) and reads all the
+	 * pictures stored in it (in any of its folders), as for
+	 * loadMoreInPictureDatabase. The pictures are read from the archive
+	 * directly (several at once), without first extracting them to files.
+	 * 
+	 * @param width
+	 *            The width that the loaded pictures should be scaled to.
+	 * @param height
+	 *            The height that the loaded pictures should be scaled to.
+	 */
+	public void loadArchiveInPictureDatabase(int width, int height) {
+		if (!canLoadInPictureDatabase(width, height))
+			return;
+		FileSelector selector = FileSelector.getFileNameSelector("Archive Selector", "Open", ".zip .jar");
+		String selected = selector.select();
+		if (selected == null || selected.isEmpty()) {
+			return;
+		}
+		try (FileSystem archive = FileSystems.newFileSystem(Paths.get(selected), (ClassLoader) null)) {
+			loadInPictureDatabase(PictureLoader.picturesIn(archive.getPath("/")), width, height);
+		} catch (IOException e) {
+			message = "Unable to read archive " + selected + "\n" + e.getMessage();
+			view.update();
+		}
+	}
+
+	/**
+	 * Keeps the database of pictures in sync with a folder: the first time,
+	 * lets the user select the folder and reads all the pictures in it (and
+	 * its subfolders), as for loadMoreInPictureDatabase; afterwards reads only
+	 * the pictures added to the folder or changed since the previous sync, and
+	 * removes from the database those deleted from it (or changed), along with
+	 * the shifted, mirrored, or rotated copies made from them (those of
+	 * changed pictures are not made again: shift or add orientations again to
+	 * make them).
+	 * 
+	 * @param width
+	 *            The width that the loaded pictures should be scaled to.
+	 * @param height
+	 *            The height that the loaded pictures should be scaled to.
+	 */
+	public void syncPictureDatabase(int width, int height) {
+		if (!canLoadInPictureDatabase(width, height))
+			return;
+		try {
+			if (folder == null) {
+				JFileChooser c = new JFileChooser();
+				c.setDialogTitle("Folder Selector");
+				c.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+				if (c.showOpenDialog(null) != JFileChooser.APPROVE_OPTION)
+					return;
+				folder = new PictureFolder(c.getSelectedFile().toPath());
+			}
+			PictureFolder.Changes changes = folder.sync();
+			if (changes.isEmpty()) {
+				message = "Picture database is in sync with " + folder.getRoot();
 				view.update();
+				return;
 			}
+			HashSet<String> removed = new HashSet<String>();
+			for (Path file : changes.removed)
+				removed.add(PictureLoader.label(file));
+			int copies = removePictures(removed);
+			PhotomosaicInfo.clearScaledPictures();
+			loadInPictureDatabase(changes.loaded, width, height);
+			message = "Removed " + changes.removed.size() + " pictures"
+					+ (copies == 0 ? "" : " and " + copies + " copies made from them") + "\n" + message;
+			view.update();
+		} catch (IOException e) {
+			message = "Unable to sync with folder\n" + e.getMessage();
+			view.update();
+		}
+	}
+
+	// Removes from the database of pictures those from the files labelled in
+	// removed, and any made from them (see DerivedTile), returning how many
+	// of the latter were removed
+	private int removePictures(HashSet<String> removed) {
+		int copies = 0;
+		for (PhotomosaicInfo p : info)
+			if (p.getPixelSource() instanceof DerivedTile && isFrom(p, removed))
+				copies++;
+		info.removeIf(p -> isFrom(p, removed));
+		return copies;
+	}
+
+	// Returns whether p is (or is made from) a picture from a file labelled in
+	// labels
+	private static boolean isFrom(PhotomosaicInfo p, HashSet<String> labels) {
+		return labels.contains(PictureLoader.fileLabel(original(p).getFileName()));
+	}
+
+	// Returns the picture that p is made from (through any number of
+	// DerivedTiles), or p itself if it is not made from another
+	private static PhotomosaicInfo original(PhotomosaicInfo p) {
+		while (p.getPixelSource() instanceof DerivedTile)
+			p = ((DerivedTile) p.getPixelSource()).getBase();
+		return p;
+	}
+
+	// Returns whether pictures of this size can be added to the database of
+	// pictures (leaving a message if not)
+	private boolean canLoadInPictureDatabase(int width, int height) {
+		if (width <= 0 || height <= 0 || (!info.isEmpty()
+				&& (width != info.get(0).getWidth() || height != info.get(0).getHeight()))) {
+			message = "Unable to load pictures\nWidth: " + width + ", Height: " + height;
+			view.update();
+			return false;
 		}
+		return true;
+	}
+
+	// Reads the pictures in files, adding them to the database of pictures,
+	// and displays the new database of pictures
+	private void loadInPictureDatabase(List<Path> files, int width, int height) {
+		// Create and add the new PhotomosaicInfos to the ArrayList "info"
+		this.message = "Attempting to load " + files.size() + " pictures";
+		view.update();
+		PictureLoader loader = new PictureLoader(width, height, filter, metric);
+		loader.setUseThumbnails(useThumbnails);
+		loader.setDuplicateIndex(DuplicateIndex.of(info, duplicateDistance));
+		loader.setCompactTiles(compactTiles, compressTiles);
+		loader.setCrops(cropsPerSide, salientCrops);
+		int before = info.size();
+		info.addAll(loader.load(files, (done, total) -> {
+			message = "  Loaded " + done + " of " + total + " pictures";
+			view.update();
+		}));
+		TileAtlas.pack(info.subList(before, info.size()));
 		this.displayPictureDatabase();
-		message = "Loaded " + fileNames.length + " pictures" 
+		message = "Loaded " + (info.size() - before) + " pictures"
+				+ (cropsPerSide == 0 ? "" : " (cropped from " + (files.size() - loader.getFailed().size()) + " files)")
+				+ (loader.getFailed().isEmpty() ? "" : "\nSkipped " + loader.getFailed().size() + " unreadable pictures")
+				+ (loader.getDropped() == 0 ? "" : "\nDropped " + loader.getDropped() + " duplicate pictures")
+				+ (useThumbnails ? "\n  " + loader.getFromThumbnails() + " from embedded thumbnails, "
+						+ loader.getFromPictures() + " from whole pictures" : "")
 				+ "\nPicture database now contains " + info.size() + " pictures";
 		view.update();
 	}
 
+	/**
+	 * Lets the user select a file and saves the database of pictures in it
+	 * (with the names of the metric and filter it was made with), so that it
+	 * can be loaded again quickly by loadPictureDatabase.
+	 */
+	public void savePictureDatabase() {
+		if (info.isEmpty()) {
+			message = "Picture database is empty";
+			view.update();
+			return;
+		}
+		JFileChooser c = new JFileChooser();
+		if (c.showSaveDialog(null) != JFileChooser.APPROVE_OPTION)
+			return;
+		String fileName = c.getSelectedFile().getAbsolutePath();
+		if (!fileName.endsWith(SNAPSHOT_SUFFIX))
+			fileName += SNAPSHOT_SUFFIX;
+		try {
+			DatabaseSnapshot.save(Paths.get(fileName), info, MetricFactory.getName(metric), filterName);
+			message = "Saved " + info.size() + " pictures in " + fileName;
+		} catch (IOException e) {
+			message = "Unable to save picture database\n" + e.getMessage();
+		}
+		view.update();
+	}
+
+	/**
+	 * Lets the user select a file saved by savePictureDatabase and replaces the
+	 * database of pictures by the one saved in it (summarized by the current
+	 * metric), then displays it.
+	 */
+	public void loadPictureDatabase() {
+		readPictureDatabase('l');
+	}
+
+	/**
+	 * As loadPictureDatabase, but maps the file into memory read-only instead
+	 * of reading the pictures: each picture is read from the file only when it
+	 * is needed (e.g. placed in a rendering). The operating system keeps one
+	 * copy of the file for all the programs mapping it, so several programs
+	 * can render with the same database without each keeping its own copy.
+	 */
+	public void mapPictureDatabase() {
+		readPictureDatabase('m');
+	}
+
+	/**
+	 * As loadPictureDatabase, but leaves the pictures in the file (which stays
+	 * open until the database is reset): only what is needed to match
+	 * pictures is kept in memory, and each picture is read from the file only
+	 * when it is needed (e.g. placed in a rendering), into a cache of limited
+	 * size (see setPictureCacheSize). The database can have many more
+	 * pictures than fit in memory.
+	 */
+	public void openPictureDatabase() {
+		readPictureDatabase('d');
+	}
+
+	// Reads the database of pictures from a file selected by the user: loading
+	// it ('l'), mapping it ('m'), or leaving it on disk ('d')
+	private void readPictureDatabase(char mode) {
+		FileSelector selector = FileSelector.getFileNameSelector("Database Selector", "Open", SNAPSHOT_SUFFIX);
+		String fileName = selector.select();
+		if (fileName == null || fileName.isEmpty()) {
+			return;
+		}
+		try {
+			Path file = Paths.get(fileName);
+			DatabaseSnapshot snapshot = mode == 'm' ? DatabaseSnapshot.map(file, metric)
+					: mode == 'd' ? DatabaseSnapshot.open(file, metric) : DatabaseSnapshot.load(file, metric);
+			resetPictureDatabase();
+			info.addAll(snapshot.getInfos());
+			if (mode == 'd')
+				openSnapshot = snapshot;
+			else if (mode == 'l' && compactTiles)
+				for (PhotomosaicInfo p : info)
+					p.compact(compressTiles);
+			this.displayPictureDatabase();
+			message = (mode == 'm' ? "Mapped " : mode == 'd' ? "Opened " : "Loaded ") + info.size() + " pictures ("
+					+ snapshot.getWidth() + "x" + snapshot.getHeight() + ") from " + fileName
+					+ "\nThey were filtered by " + snapshot.getFilterName() + " and summarized by "
+					+ snapshot.getMetricName()
+					+ (snapshot.getMetricName().equals(MetricFactory.getName(metric)) ? ""
+							: " (summarized again by " + MetricFactory.getName(metric) + ")");
+		} catch (IOException e) {
+			message = "Unable to load picture database\n" + e.getMessage();
+		}
+		view.update();
+	}
+
+	/**
+	 * Sets the most memory used to cache pictures: those read from a database
+	 * kept on disk or mapped, and those scaled for rendering. The least
+	 * recently used are discarded when the cache is full.
+	 * 
+	 * @param megabytes
+	 */
+	public void setPictureCacheSize(int megabytes) {
+		if (megabytes <= 0)
+			return;
+		PhotomosaicInfo.setScaledPicturesCapacity((long) megabytes << 20);
+		message = "Picture cache size is now " + megabytes + "MB";
+		view.update();
+	}
+
 	public void resetPictureDatabase() {
 		info.clear();
+		if (openSnapshot != null) {
+			try {
+				openSnapshot.close();
+			} catch (IOException e) {
+				// Its pictures can no longer be read either way
+			}
+			openSnapshot = null;
+		}
+		if (folder != null) {
+			try {
+				folder.close();
+			} catch (IOException e) {
+				// It is no longer watched either way
+			}
+			folder = null;
+		}
+		PhotomosaicInfo.clearScaledPictures();
+		if (catalog != null)
+			catalog.clear();
 	}
 
 	public void displayPictureDatabase() {
@@ -104,31 +384,17 @@ public class Model {
 			view.update();
 			return;
 		}
-		/* The number of rows/columns of pictures in the catalog */
-		int columns = ((int) Math.sqrt(info.size()));
-		int rows = (int) Math.ceil(info.size() * 1.0 / columns);
-		/* The width & height of the pictures */
-		int width = this.getDatabasePictureSize().width;
-		int height = this.getDatabasePictureSize().height;
-		/* The picture to overlay the mini pictures onto */
-		Picture catalog = Picture.makeEmptyPicture("Catalog", columns * width, rows * height);
-		int i = 0;
-		outer: for (int row = 0; row < rows; row++) {
-			for (int col = 0; col < columns; col++) {
-				if (i >= info.size()) {
-					break outer;
-				}
-				catalog.overlay(col * width, row * height, info.get(i).getPicture());
-				i++;
-			}
-		}
-		catalog.display(0, 0);
+		if (catalog == null)
+			catalog = new CatalogViewer();
+		catalog.display(info, getDatabasePictureSize().width, getDatabasePictureSize().height, 0, 0);
 	}
 	
 	/**
 	 * This method scans the database of pictures: for each picture that is OK 
 	 * by the first parameter, a copy is made and filtered by the second parameter, 
 	 * and added to the database. Display the new database of pictures.
+	 * The copies are virtual (see ShiftedTile): their pixels are made only when
+	 * they are placed or displayed.
 	 * @param decision An object from a class implementing Decision to decide which 
 	 * pictures in the database should be filtered/added
 	 * @param filter Filters the images that are OK by the first parameter
@@ -140,10 +406,8 @@ public class Model {
 		int origSize = info.size();
 		for (int j = 0; j < origSize; j++) {
 			if (decision.isOK(info.get(j))) {
-				Picture newPic = info.get(j).getPicture().copy(info.get(j).getPicture().getFileName() + forString);
-				newPic.filter(filter);
-				this.metric.makeSummary(newPic);
-				info.add(new PhotomosaicInfo(this.metric.copy(), newPic));
+				ShiftedTile tile = new ShiftedTile(info.get(j), filter, info.get(j).getFileName() + forString);
+				info.add(new PhotomosaicInfo(tile.summarize(this.metric), tile));
 				i++;
 			}
 		}
@@ -153,6 +417,38 @@ public class Model {
 
 	}
 
+	/**
+	 * This method scans the database of pictures: for each picture that is OK
+	 * by the parameter (and was not itself made by mirroring or rotating), a
+	 * copy of it is added to the database in each other Orientation that keeps
+	 * its size: mirrored left-right and upside-down, and rotated 180 degrees,
+	 * and also rotated 90 and 270 degrees and transposed both ways if it is
+	 * square. Display the new database of pictures.
+	 * The copies are virtual (see OrientedTile): their pixels are made only
+	 * when they are placed or displayed, and their summaries are made from the
+	 * picture's, so this is fast and takes up almost no memory.
+	 * @param decision An object from a class implementing Decision to decide which 
+	 * pictures in the database should be mirrored and rotated
+	 */
+	public void addOrientations(Decision decision) {
+		int i = 0;
+		int origSize = info.size();
+		for (int j = 0; j < origSize; j++) {
+			PhotomosaicInfo p = info.get(j);
+			if (p.getPixelSource() instanceof OrientedTile || !decision.isOK(p))
+				continue;
+			for (Orientation o : Orientation.values())
+				if (o != Orientation.NORMAL && o.keepsSize(p.getWidth(), p.getHeight())) {
+					OrientedTile tile = new OrientedTile(p, o);
+					info.add(new PhotomosaicInfo(tile.summarize(this.metric), tile));
+					i++;
+				}
+		}
+		this.displayPictureDatabase();
+		message = "" + i + " mirrored and rotated pictures were added to the database";
+		view.update();
+	}
+
 	/**
 	 * One parameter, an object constructed from a class implementing
 	 * Comparator. Sort the database of pictures using this parameter and
@@ -174,9 +470,118 @@ public class Model {
 	 * @param filter
 	 */
 	public void setFilter(Filter filter) {
+		if (filter == null)
+			return;
+		setFilter(filter, filter.getClass().getSimpleName());
+	}
+
+	/**
+	 * As setFilter(filter), also recording the name of the filter (as given
+	 * to FilterFactory.getFilter), which is saved with the database of
+	 * pictures.
+	 * 
+	 * @param filter
+	 * @param name
+	 */
+	public void setFilter(Filter filter, String name) {
 		if (filter == null)
 			return;
 		this.filter = filter;
+		this.filterName = name;
+	}
+
+	/**
+	 * Sets whether subsequent files that are loaded into the database of
+	 * pictures are made from the thumbnails embedded in them (when these are
+	 * large enough), instead of from the whole pictures: much faster for
+	 * camera JPEGs and small database pictures.
+	 * 
+	 * @param useThumbnails
+	 */
+	public void setUseThumbnails(boolean useThumbnails) {
+		this.useThumbnails = useThumbnails;
+		message = "Embedded thumbnails will " + (useThumbnails ? "" : "not ") + "be used to load pictures";
+		view.update();
+	}
+
+	/**
+	 * Sets whether the pixels of pictures in the database are kept compactly:
+	 * as packed RGB bytes (or gray bytes) instead of as pictures, and
+	 * optionally compressed; each picture is rebuilt from them when it is
+	 * placed or displayed, into the picture cache (see setPictureCacheSize).
+	 * This applies to the pictures already in the database (except those kept
+	 * in a database file, see openPictureDatabase) and to all subsequent ones.
+	 * Pictures already kept compactly stay as they are. Uncompressed, a picture
+	 * takes 3/4 of the memory (besides the objects saved); most of the savings
+	 * come from compressing, see CompactTile.
+	 * 
+	 * @param compact
+	 * @param compress
+	 */
+	public void setCompactTiles(boolean compact, boolean compress) {
+		this.compactTiles = compact;
+		this.compressTiles = compact && compress;
+		if (!compact) {
+			message = "Pictures will be kept as pictures";
+			view.update();
+			return;
+		}
+		int count = 0;
+		long before = 0, after = 0;
+		for (PhotomosaicInfo p : info) {
+			CompactTile tile = p.compact(compress);
+			if (tile != null) {
+				count++;
+				before += (tile.isGray() ? 1L : 4L) * tile.getWidth() * tile.getHeight();
+				after += tile.getBytes();
+			}
+		}
+		message = "Pictures will be kept packed" + (compress ? " and compressed" : "")
+				+ (count == 0 ? "" : "\nCompacted " + count + " pictures from " + (before >> 10) + "KB to "
+						+ (after >> 10) + "KB of pixels");
+		view.update();
+	}
+
+	/**
+	 * Sets how many pictures each subsequent file that is loaded into the
+	 * database of pictures gives. If perSide is 0, one: the whole picture,
+	 * scaled. Otherwise up to perSide * perSide, cropped from it, each of
+	 * the database pictures' shape and overlapping its neighbors by half:
+	 * either on a grid, or where the picture has the most detail (salient).
+	 * Crops that would be the same tile (e.g. two of a clear sky) are dropped.
+	 * The picture is decoded once for all its crops.
+	 * 
+	 * @param perSide
+	 * @param salient
+	 */
+	public void setCrops(int perSide, boolean salient) {
+		if (perSide < 0)
+			return;
+		this.cropsPerSide = perSide;
+		this.salientCrops = salient;
+		message = perSide == 0 ? "Each picture loaded will give one picture"
+				: "Each picture loaded will give up to " + perSide * perSide + " pictures, cropped "
+						+ (salient ? "where it has the most detail" : "on a grid");
+		view.update();
+	}
+
+	/**
+	 * Sets how alike subsequent files that are loaded into the database of
+	 * pictures must be to pictures already in it (or loaded before them) to be
+	 * dropped as duplicates. Exact copies are always dropped; near copies are
+	 * dropped if their perceptual hashes differ in at most maxDistance (of 64)
+	 * bits and their average colors are close. If maxDistance is -1, only
+	 * exact copies are dropped.
+	 * 
+	 * @param maxDistance
+	 */
+	public void setDuplicateDistance(int maxDistance) {
+		if (maxDistance < -1 || maxDistance > Long.SIZE)
+			return;
+		this.duplicateDistance = maxDistance;
+		message = maxDistance < 0 ? "Exact copies will be dropped as duplicates"
+				: "Exact copies, and near copies within " + maxDistance + " bits, will be dropped as duplicates";
+		view.update();
 	}
 
 	/**
@@ -191,10 +596,15 @@ public class Model {
 		if (metric == null)
 			return;
 		this.metric = metric;
-		for (PhotomosaicInfo p : info) {
-			metric.makeSummary(p.getPicture());
-			p.setMetric(metric.copy());
-		}
+		for (PhotomosaicInfo p : info)
+			if (!(p.getPixelSource() instanceof DerivedTile)) {
+				metric.makeSummary(p.readPicture());
+				p.setMetric(metric.copy());
+			}
+		// Shifted (etc.) pictures are summarized from the pictures they were made from
+		for (PhotomosaicInfo p : info)
+			if (p.getPixelSource() instanceof DerivedTile)
+				p.setMetric(((DerivedTile) p.getPixelSource()).summarize(metric));
 		message = metric.getClass().getName() + " was applied to " + info.size() + " pictures.";
 		view.update();
 	}
@@ -219,9 +629,24 @@ public class Model {
 		if (fileName == null || fileName.isEmpty()) {
 			return;
 		}
+		if (width == Picture.NATURAL_SIZE && height == Picture.NATURAL_SIZE) {
+			// Very large pictures are decoded a band at a time as they are rendered
+			StreamedPicture streamed = new StreamedPicture(fileName, filter);
+			if (StreamedPicture.isLarge(streamed.getWidth(), streamed.getHeight())) {
+				this.picToRender = null;
+				this.streamedToRender = streamed;
+				Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+				streamed.preview(screen.width, screen.height).display(0, 0);
+				message = "Loaded " + fileName + "\nPicture is " + streamed.getWidth() + "x" + streamed.getHeight()
+						+ " (it will be decoded in bands as it is rendered)";
+				view.update();
+				return;
+			}
+		}
 		Picture pic = new Picture(fileName, width, height);
 		pic.filter(filter);
 		this.picToRender = pic;
+		this.streamedToRender = null;
 		pic.display(0, 0);
 		message = "Loaded " + fileName + "\nPicture is " + pic.getWidth() + "x" + pic.getHeight();
 		view.update();
@@ -233,19 +658,37 @@ public class Model {
 	 * @param height The height to scale picToRender to
 	 */
 	public void scalePictureToRender(int width, int height) {
-		if (picToRender == null) {
+		if (picToRender == null && streamedToRender == null) {
 			message = "Picture to render was null.";
 			view.update();
 			return;
 		}
-		picToRender = picToRender.scale(width, height);
+		if (streamedToRender != null) {
+			// Decode the large picture subsampled, straight to the new size
+			if (width == Picture.NATURAL_SIZE)
+				width = streamedToRender.getWidth();
+			if (height == Picture.NATURAL_SIZE)
+				height = streamedToRender.getHeight();
+			if (!StreamedPicture.isLarge(width, height)) {
+				picToRender = streamedToRender.scale(width, height);
+				streamedToRender = null;
+			}
+		} else
+			picToRender = picToRender.scale(width, height);
+		if (picToRender == null) {
+			message = "Picture to render is still too large to decode all at once (" + width + "x" + height + ")";
+			view.update();
+			return;
+		}
 		picToRender.display(0, 0);
 		message = "Scaled picture to render to width (" + width + ") and height (" + height + ")";
 		view.update();
 	}
 	
 	public Dimension getPictureToRenderSize() {
-		if (this.picToRender == null) {
+		if (this.streamedToRender != null) {
+			return new Dimension(streamedToRender.getWidth(), streamedToRender.getHeight());
+		} else if (this.picToRender == null) {
 			return new Dimension(0, 0);
 		} else {
 			return new Dimension(picToRender.getWidth(), picToRender.getHeight());
@@ -256,7 +699,7 @@ public class Model {
 		if (info.isEmpty()) {
 			return new Dimension(0, 0);
 		} else {
-			return new Dimension(info.get(0).getPicture().getWidth(), info.get(0).getPicture().getHeight());
+			return new Dimension(info.get(0).getWidth(), info.get(0).getHeight());
 		}
 	}
 
@@ -276,7 +719,8 @@ public class Model {
 	 * @param minDistance The minimum distance between reuses
 	 */
 	public void renderPicture(int sampleWidth, int maxTimesReuse, double minDistance) {
-		if (picToRender == null || metric == null || info.size() == 0 || sampleWidth <= 0 || maxTimesReuse <= 0) {
+		if ((picToRender == null && streamedToRender == null) || metric == null || info.size() == 0 || sampleWidth <= 0
+				|| maxTimesReuse <= 0) {
 			message = "Couldn't render picture";
 			view.update();
 			return;
@@ -288,8 +732,14 @@ public class Model {
 		int renderedHeight = getPictureToRenderSize().height;
 		int sampleHeight = (int) (sampleWidth * getDatabasePictureSize().getHeight()
 				/ getDatabasePictureSize().getWidth());
-		Picture renderedPicture = Picture.makeEmptyPicture("Rendered" + picToRender.getFileName(), renderedWidth,
-				renderedHeight);
+		// a database of only gray pictures renders a gray picture (one byte per pixel)
+		boolean gray = true;
+		for (PhotomosaicInfo p : info)
+			gray &= p.isGray();
+		String name = "Rendered" + (picToRender != null ? picToRender.getFileName() : streamedToRender.getFileName());
+		Picture renderedPicture = gray
+				? Picture.makeEmptyGrayPicture(name, renderedWidth, renderedHeight)
+				: Picture.makeEmptyPicture(name, renderedWidth, renderedHeight);
 		// the number of columns / rows of mini pictures
 		int columns = (int) (renderedWidth * 1.0 / sampleWidth);
 		int rows = (int) (renderedHeight * 1.0 / sampleHeight);
@@ -298,13 +748,28 @@ public class Model {
 		final int total = rows * columns;
 		final int[] beats = {0, total/10, total*2/10, total*3/10, total*4/10, total*5/10,
 				total*6/10, total*7/10, total*8/10, total*9/10, total};
+		// the rows of the picture to render being summarized: all of it, or
+		// (for a streamed picture) the band of rows of regions decoded last
+		Picture band = this.picToRender;
+		int bandStart = 0, bandRows = rows;
+		// the mini pictures chosen for the previous row of regions, being read
+		// and scaled (in other threads) while the next row is matched
+		ArrayList<CompletableFuture<Picture>> previousRow = null;
 		// iterate through all the regions, and overlay the best fit over each region
 		for (int r = 0; r < rows; r++) {
+			if (streamedToRender != null && (band == null || r >= bandStart + bandRows)) {
+				bandStart = r;
+				bandRows = Math.min(rows - r, streamedToRender.getBandCells(sampleHeight));
+				band = null; // let the previous band be collected while decoding the next
+				band = streamedToRender.readBand(r * sampleHeight, bandRows * sampleHeight);
+			}
+			ArrayList<CompletableFuture<Picture>> row = new ArrayList<CompletableFuture<Picture>>(columns);
+			HashMap<PhotomosaicInfo, CompletableFuture<Picture>> fetching = new HashMap<PhotomosaicInfo, CompletableFuture<Picture>>();
 			for (int c = 0; c < columns; c++) {
 				Point curPoint = new Point(c, r);
 				int columnStart = (c * sampleWidth);
 				int rowStart = (r * sampleHeight);
-				metric.makeSummary(this.picToRender, rowStart, columnStart, sampleWidth, sampleHeight);
+				metric.makeSummary(band, rowStart - bandStart * sampleHeight, columnStart, sampleWidth, sampleHeight);
 				PhotomosaicInfo bestFit = getBestFit(curPoint, minDistance, metric, newInfo);
 				bestFit.addUsed(curPoint);
 				// Check if the bestFit has been used the max number of times, 
@@ -312,8 +777,13 @@ public class Model {
 				if (bestFit.getUsed() >= maxTimesReuse) {
 					newInfo.remove(bestFit);
 				}
-				// Overlay the mini picture onto the rendered picture
-				renderedPicture.overlay(columnStart, rowStart, bestFit.getPicture().scale(sampleWidth, sampleHeight));
+				// Start reading/scaling the mini picture (once per row)
+				CompletableFuture<Picture> tile = fetching.get(bestFit);
+				if (tile == null) {
+					tile = bestFit.prefetchScaledPicture(sampleWidth, sampleHeight);
+					fetching.put(bestFit, tile);
+				}
+				row.add(tile);
 				// Print the rendering heartbeat
 				for (int j = 0; j < beats.length; j++) {
 					if (i == beats[j]) { 
@@ -324,12 +794,26 @@ public class Model {
 				}
 				i++;
 			}
+			// Overlay the mini pictures onto the previous row of the rendered picture
+			if (previousRow != null)
+				overlayRow(renderedPicture, previousRow, r - 1, sampleWidth, sampleHeight);
+			previousRow = row;
 		}
+		if (previousRow != null)
+			overlayRow(renderedPicture, previousRow, rows - 1, sampleWidth, sampleHeight);
 
 		renderedPicture.display(0, 0);
 		this.renderedPicture = renderedPicture;
 	}
 	
+	// Overlays the mini pictures for row r of regions (once each is read and
+	// scaled) onto the rendered picture
+	private void overlayRow(Picture renderedPicture, ArrayList<CompletableFuture<Picture>> row, int r,
+			int sampleWidth, int sampleHeight) {
+		for (int c = 0; c < row.size(); c++)
+			renderedPicture.overlay(c * sampleWidth, r * sampleHeight, row.get(c).join());
+	}
+
 	/**
 	 * Saves the currently rendered picture in a file. If renderedPicture
 	 * is null, return.
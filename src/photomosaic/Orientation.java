@@ -0,0 +1,83 @@
+package photomosaic;
+
+/**
+ * The <code>Orientation</code> enum lists the 8 ways a picture can be
+ * mirrored and rotated (by multiples of 90 degrees). Each is made of up to
+ * three steps: the pixel at (x,y) of the oriented picture is the pixel at
+ * (y,x) of the picture if it is transposed, then with x counted from the
+ * right if it is flipped left-right, and y counted from the bottom if it is
+ * flipped upside-down. The orientations that transpose swap the width and
+ * height of a picture, so only square pictures can be given them.
+ */
+enum Orientation {
+	NORMAL(false, false, false, ""),
+	FLIPPED_LEFT_RIGHT(true, false, false, " flipped"),
+	FLIPPED_UPSIDE_DOWN(false, true, false, " flipped upside-down"),
+	ROTATED_180(true, true, false, " rotated 180"),
+	TRANSPOSED(false, false, true, " transposed"),
+	ROTATED_90(false, true, true, " rotated 90"),
+	ROTATED_270(true, false, true, " rotated 270"),
+	ANTI_TRANSPOSED(true, true, true, " anti-transposed");
+
+	private final boolean flipX, flipY, transpose;
+	private final String label;
+
+	private Orientation(boolean flipX, boolean flipY, boolean transpose, String label) {
+		this.flipX = flipX;
+		this.flipY = flipY;
+		this.transpose = transpose;
+		this.label = label;
+	}
+
+	/**
+	 * Returns the text appended to the name of a picture given this
+	 * orientation.
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * Returns whether a picture of the specified size keeps its size when
+	 * given this orientation.
+	 */
+	public boolean keepsSize(int width, int height) {
+		return !transpose || width == height;
+	}
+
+	/**
+	 * Returns which quadrant (0 is upper-left, 1 upper-right, 2 lower-left, 3
+	 * lower-right) of a picture ends up as quadrant <code>q</code> of the
+	 * picture given this orientation. For pictures whose width and height are
+	 * even the quadrants are the same pixels, just moved.
+	 */
+	public int quadrantFrom(int q) {
+		int x = q & 1, y = q >> 1;
+		int sx = transpose ? y : x, sy = transpose ? x : y;
+		return (flipX ? 1 - sx : sx) + 2 * (flipY ? 1 - sy : sy);
+	}
+
+	/**
+	 * Returns a copy of <code>p</code> given this orientation, labelled
+	 * <code>name</code>.
+	 */
+	public Picture apply(Picture p, String name) {
+		int width = p.getWidth(), height = p.getHeight();
+		int newWidth = transpose ? height : width, newHeight = transpose ? width : height;
+		byte[] gray = p.getGrayPixels();
+		byte[] newGray = gray != null ? new byte[width * height] : null;
+		int[] pixels = gray != null ? null : p.getPixels();
+		int[] newPixels = gray != null ? null : new int[width * height];
+		for (int y = 0, i = 0; y < newHeight; y++)
+			for (int x = 0; x < newWidth; x++, i++) {
+				int sx = transpose ? y : x, sy = transpose ? x : y;
+				int from = (flipY ? height - 1 - sy : sy) * width + (flipX ? width - 1 - sx : sx);
+				if (gray != null)
+					newGray[i] = gray[from];
+				else
+					newPixels[i] = pixels[from];
+			}
+		return gray != null ? Picture.wrapGray(name, newWidth, newHeight, newGray)
+				: Picture.wrap(name, newWidth, newHeight, newPixels);
+	}
+}
@@ -0,0 +1,80 @@
+package photomosaic;
+
+/**
+ * The <code>OrientedTile</code> class is a picture in a database made by
+ * mirroring and/or rotating another picture in it (see
+ * <code>Model.addOrientations</code>), kept as just a reference to that
+ * picture and the <code>Orientation</code>: its pixels are made only when
+ * it is needed (placed in a rendering or displayed), and kept only in the
+ * cache of scaled pictures (see <code>PhotomosaicInfo.getScaledPicture</code>).
+ *
+ * Its summary is made from the summary of the picture it was made from,
+ * without making its pixels at all: it is the same for a metric averaging
+ * the whole picture, and the quadrants' summaries moved for a
+ * <code>QuadMetric</code> (see
+ * <code>Metric.makeSummary(Metric, Orientation)</code>) if the picture's
+ * width and height are even; otherwise it is made from its pixels.
+ */
+class OrientedTile implements DerivedTile {
+	private final PhotomosaicInfo base;
+	private final Orientation orientation;
+	private final String name;
+
+	/**
+	 * Constructs the picture made by giving the picture of <code>base</code>
+	 * the orientation <code>orientation</code>, named by appending the
+	 * orientation's label to the picture's name.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the orientation would change the size of the picture
+	 */
+	public OrientedTile(PhotomosaicInfo base, Orientation orientation) throws IllegalArgumentException {
+		if (!orientation.keepsSize(base.getWidth(), base.getHeight()))
+			throw new IllegalArgumentException("OrientedTile: orientation(" + orientation + ") illegal for size "
+					+ base.getWidth() + "x" + base.getHeight());
+		this.base = base;
+		this.orientation = orientation;
+		this.name = base.getFileName() + orientation.getLabel();
+	}
+
+	public PhotomosaicInfo getBase() {
+		return base;
+	}
+
+	public Orientation getOrientation() {
+		return orientation;
+	}
+
+	public int getWidth() {
+		return base.getWidth();
+	}
+
+	public int getHeight() {
+		return base.getHeight();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isGray() {
+		return base.isGray();
+	}
+
+	public Picture load() {
+		return orientation.apply(base.getPicture(), name);
+	}
+
+	public Metric summarize(Metric metric) {
+		Metric summary = metric.copy();
+		// The quadrants of a picture whose width or height is odd leave out
+		// its middle column or row, so moved they are not the new quadrants
+		boolean moved = getWidth() % 2 == 0 && getHeight() % 2 == 0;
+		if (MetricFactory.getName(base.getMetric()).equals(MetricFactory.getName(metric))
+				&& (moved || !(metric instanceof QuadMetric)))
+			summary.makeSummary(base.getMetric(), orientation);
+		else
+			summary.makeSummary(load());
+		return summary;
+	}
+}
@@ -0,0 +1,73 @@
+package photomosaic;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The <code>ParallelRows</code> class runs some work over all the rows of a
+ * picture: in the calling thread if there are few pixels, otherwise by
+ * splitting the rows into strips (in half, again and again) and running the
+ * strips in parallel in the common fork/join pool.
+ */
+final class ParallelRows {
+	/**
+	 * The <code>Body</code> interface specifies the work to do on one strip
+	 * of rows.
+	 */
+	interface Body {
+		/**
+		 * Does the work for rows <code>rowStart</code> (inclusive) to
+		 * <code>rowEnd</code> (exclusive).
+		 */
+		public void rows(int rowStart, int rowEnd);
+	}
+
+	private ParallelRows() {
+	}
+
+	/**
+	 * Runs <code>body</code> over rows 0 (inclusive) to <code>rows</code>
+	 * (exclusive).
+	 *
+	 * @param rows
+	 *            specifies the number of rows
+	 * @param pixelsPerRow
+	 *            specifies about how many pixels the work for each row
+	 *            touches (used to decide how small to make strips)
+	 * @param body
+	 *            specifies the work to do on each strip
+	 */
+	static void forEach(int rows, int pixelsPerRow, Body body) {
+		Strip strip = new Strip(body, Math.max(1, pixelsPerRow), 0, rows);
+		if ((long) rows * pixelsPerRow <= PIXELS_PER_TASK)
+			strip.compute();
+		else
+			ForkJoinPool.commonPool().invoke(strip);
+	}
+
+	// Strip runs the body on its rows, splitting them in half (and running
+	// the halves in parallel) while they cover too many pixels.
+	private static class Strip extends RecursiveAction {
+		Strip(Body body, int pixelsPerRow, int rowStart, int rowEnd) {
+			this.body = body;
+			this.pixelsPerRow = pixelsPerRow;
+			this.rowStart = rowStart;
+			this.rowEnd = rowEnd;
+		}
+
+		protected void compute() {
+			if (rowEnd - rowStart <= 1 || (long) (rowEnd - rowStart) * pixelsPerRow <= PIXELS_PER_TASK) {
+				body.rows(rowStart, rowEnd);
+				return;
+			}
+			int middle = (rowStart + rowEnd) >>> 1;
+			invokeAll(new Strip(body, pixelsPerRow, rowStart, middle), new Strip(body, pixelsPerRow, middle, rowEnd));
+		}
+
+		private final Body body;
+		private final int pixelsPerRow, rowStart, rowEnd;
+		private static final long serialVersionUID = 1L;
+	}
+
+	static final int PIXELS_PER_TASK = 1 << 16;
+}
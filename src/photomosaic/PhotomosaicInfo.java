@@ -2,11 +2,16 @@ package photomosaic;
 
 import java.awt.Point;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 class PhotomosaicInfo {
 	private Metric metric;
 	private Picture picture;
+	private PixelSource source;
 	private ArrayList<Point> usedPlaces = new ArrayList<Point>();
+	private PictureHash hash;
 
 	public PhotomosaicInfo(Metric metric, Picture picture) {
 		// TODO
@@ -14,8 +19,175 @@ class PhotomosaicInfo {
 		this.picture = picture;
 	}
 
+	/**
+	 * Constructs the information for a picture whose pixels are kept in
+	 * <code>source</code>: they are read only when the picture is needed (and
+	 * kept only in the cache of scaled pictures, see
+	 * <code>getScaledPicture</code>).
+	 */
+	public PhotomosaicInfo(Metric metric, PixelSource source) {
+		this.metric = metric;
+		this.source = source;
+	}
+
+	/**
+	 * Returns this picture. For a picture whose pixels are kept in a
+	 * <code>PixelSource</code> it is read from there if it is not cached, and
+	 * it must not be changed.
+	 */
 	public Picture getPicture() {
-		return picture;
+		if (picture != null)
+			return picture;
+		ScaledKey key = new ScaledKey(this, source.getWidth(), source.getHeight());
+		Picture loaded = scaledPictures.get(key);
+		if (loaded == null) {
+			loaded = source.load();
+			scaledPictures.put(key, loaded, bytes(loaded));
+		}
+		return loaded;
+	}
+
+	/**
+	 * Keeps this picture's pixels in a <code>CompactTile</code> instead of a
+	 * <code>Picture</code> (see <code>CompactTile</code>), so they take up
+	 * less memory; the picture is rebuilt from them when it is needed. Does
+	 * nothing if its pixels are already kept compactly, or in a database
+	 * file.
+	 *
+	 * @param compress
+	 *            specifies whether to compress the pixels too
+	 *
+	 * @return the tile the pixels are now kept in, or <code>null</code> if
+	 *         nothing was done
+	 */
+	public CompactTile compact(boolean compress) {
+		if (picture == null && !(source instanceof TileAtlas.Tile))
+			return null;
+		CompactTile tile = CompactTile.of(readPicture(), compress);
+		setPixelSource(tile);
+		return tile;
+	}
+
+	/**
+	 * Returns this picture, read from its <code>PixelSource</code> (if it has
+	 * one) without caching it: for going through the whole database once
+	 * (e.g. to summarize it), which would only evict cached pictures that are
+	 * still needed. It must not be changed.
+	 */
+	public Picture readPicture() {
+		return picture != null ? picture : source.load();
+	}
+
+	/**
+	 * Returns where this picture's pixels are kept, or <code>null</code> if
+	 * they are kept in a <code>Picture</code> of its own.
+	 */
+	public PixelSource getPixelSource() {
+		return source;
+	}
+
+	/**
+	 * Keeps this picture's pixels in <code>source</code> (which must have the
+	 * same pixels) from now on.
+	 */
+	public void setPixelSource(PixelSource source) {
+		this.source = source;
+		this.picture = null;
+	}
+
+	/**
+	 * Returns the name of this picture, without reading it.
+	 */
+	public String getFileName() {
+		return picture != null ? picture.getFileName() : source.getName();
+	}
+
+	/**
+	 * Returns whether this picture is gray, without reading it.
+	 */
+	public boolean isGray() {
+		return picture != null ? picture.isGray() : source.isGray();
+	}
+
+	public int getWidth() {
+		return picture != null ? picture.getWidth() : source.getWidth();
+	}
+
+	public int getHeight() {
+		return picture != null ? picture.getHeight() : source.getHeight();
+	}
+
+	/**
+	 * Returns this picture scaled (by area averaging) to the specified size.
+	 * Scaled pictures are cached, for all pictures in all databases, so a
+	 * picture placed many times at the same size is scaled only once; the
+	 * least recently used ones are evicted when the cache is full.
+	 *
+	 * @param width
+	 *            specifies the width to scale to (in pixels)
+	 * @param height
+	 *            specifies the height to scale to (in pixels)
+	 *
+	 * @return this picture scaled to the specified size (it must not be
+	 *         changed)
+	 */
+	public Picture getScaledPicture(int width, int height) {
+		if (width == getWidth() && height == getHeight())
+			return getPicture();
+		ScaledKey key = new ScaledKey(this, width, height);
+		Picture scaled = scaledPictures.get(key);
+		if (scaled == null) {
+			// A compact picture is decoded just to be scaled, into a reused buffer
+			Picture full = picture == null && source instanceof CompactTile ? ((CompactTile) source).loadShared()
+					: getPicture();
+			scaled = full.scale(width, height);
+			scaledPictures.put(key, scaled, bytes(scaled));
+		}
+		return scaled;
+	}
+
+	/**
+	 * Starts getting this picture scaled to the specified size (as by
+	 * <code>getScaledPicture</code>) in another thread, so that reading it
+	 * (for a picture whose pixels are kept in a <code>PixelSource</code>) and
+	 * scaling it overlap with other work.
+	 *
+	 * @param width
+	 *            specifies the width to scale to (in pixels)
+	 * @param height
+	 *            specifies the height to scale to (in pixels)
+	 *
+	 * @return the scaled picture, once it is ready (it must not be changed)
+	 */
+	public CompletableFuture<Picture> prefetchScaledPicture(int width, int height) {
+		return CompletableFuture.supplyAsync(() -> getScaledPicture(width, height), prefetcher);
+	}
+
+	/**
+	 * Discards all cached scaled pictures (see <code>getScaledPicture</code>).
+	 */
+	public static void clearScaledPictures() {
+		scaledPictures.clear();
+	}
+
+	/**
+	 * Changes the most bytes cached scaled pictures may take up (see
+	 * <code>getScaledPicture</code>).
+	 */
+	public static void setScaledPicturesCapacity(long bytes) {
+		scaledPictures.setCapacity(bytes);
+	}
+
+	/**
+	 * Returns the hashes used to find duplicates of this picture, or
+	 * <code>null</code> if it has none (e.g. it was made by shifting another).
+	 */
+	public PictureHash getHash() {
+		return hash;
+	}
+
+	public void setHash(PictureHash hash) {
+		this.hash = hash;
 	}
 
 	public Metric getMetric() {
@@ -43,4 +215,47 @@ class PhotomosaicInfo {
 		return usedPlaces;
 	}
 
+	/** the default most bytes cached scaled pictures may take up */
+	public static final long SCALED_PICTURES_CAPACITY = 64L << 20;
+
+	/** the number of threads reading and scaling pictures ahead of their use */
+	public static final int PREFETCH_THREADS = 4;
+
+	private static final ExecutorService prefetcher = Executors.newFixedThreadPool(PREFETCH_THREADS, r -> {
+		Thread t = new Thread(r, "PhotomosaicInfo prefetch");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private static final LruCache<ScaledKey, Picture> scaledPictures = new LruCache<ScaledKey, Picture>(
+			SCALED_PICTURES_CAPACITY);
+
+	// Returns the bytes p's pixels take up in the cache (1 per pixel if gray)
+	private static long bytes(Picture p) {
+		return (p.isGray() ? 1L : 4L) * p.getWidth() * p.getHeight();
+	}
+
+	// ScaledKey identifies one size of one (identical) PhotomosaicInfo
+	private static class ScaledKey {
+		ScaledKey(PhotomosaicInfo info, int width, int height) {
+			this.info = info;
+			this.width = width;
+			this.height = height;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof ScaledKey))
+				return false;
+			ScaledKey k = (ScaledKey) o;
+			return info == k.info && width == k.width && height == k.height;
+		}
+
+		public int hashCode() {
+			return (System.identityHashCode(info) * 31 + width) * 31 + height;
+		}
+
+		private final PhotomosaicInfo info;
+		private final int width, height;
+	}
+
 }
@@ -1,12 +1,23 @@
 package photomosaic;
 
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
 import java.awt.image.MemoryImageSource;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
@@ -17,6 +28,12 @@ import javax.swing.JPanel;
  * .jpg) file. We can query each instance about the picture it stores (including
  * the RGB values at any of its pixels) and command it to change any RBG values
  * of its pixels. We can also display this picture in its own frame.
+ * <p>
+ * A picture is stored as packed ARGB values, or, when it is filtered by a
+ * filter whose results are always gray, as one byte per pixel (a gray
+ * picture: see <code>isGray</code>). Reading a gray picture's pixels as ARGB
+ * values expands them as they are read; changing them (or asking for the
+ * packed ARGB array) first converts the picture back to packed ARGB values.
  */
 public class Picture {
 
@@ -38,6 +55,11 @@ public class Picture {
 		_width = width;
 		_height = height;
 		_bufferImage = bufferImage;
+		DataBuffer data = bufferImage.getRaster().getDataBuffer();
+		if (data instanceof DataBufferByte)
+			_gray = ((DataBufferByte) data).getData();
+		else
+			_pixels = pixelsOf(bufferImage);
 	}
 
 	/**
@@ -60,33 +82,150 @@ public class Picture {
 	 *             it: i.e. not a real .gif/.jpg (or .jpg) file)
 	 */
 	public Picture(String fileName, int width, int height) throws IllegalArgumentException {
+		this(fileName, sized(fileName, read(fileName), width, height));
+	}
+
+	/**
+	 * Constructs a picture from the required state. This version determines the
+	 * <code>bufferImage</code> by decoding <code>encoded</code>: the contents
+	 * of a .gif/.jpeg (or .jpg)/.png file, already read into memory. Unlike the
+	 * constructor that reads a file, it may be called from several threads at
+	 * once to decode several pictures in parallel. If width/height are
+	 * <code>Picture.NATURAL_SIZE</code> then these values are replaced by those
+	 * of the decoded picture (and the picture is not scaled). Otherwise the
+	 * picture is scaled to conform to these sizes.
+	 *
+	 * @param label
+	 *            specifies the label (fileName) of the picture
+	 * @param encoded
+	 *            specifies the contents of the picture's file
+	 * @param width
+	 *            specifies the width to make the picture (in pixels)
+	 * @param height
+	 *            specifies the height to make the picture (in pixels)
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>encoded</code> does not store a picture
+	 */
+	public Picture(String label, byte[] encoded, int width, int height) throws IllegalArgumentException {
+		this(label, sized(label, decode(label, encoded, width, height), width, height));
+	}
+
+	/**
+	 * Constructs a picture from the required state. This version uses
+	 * <code>image</code>, an already decoded picture (which it may keep as its
+	 * own, so <code>image</code> should not be changed afterwards). If width/height are
+	 * <code>Picture.NATURAL_SIZE</code> then these values are replaced by those
+	 * of <code>image</code> (and the picture is not scaled). Otherwise the
+	 * picture is scaled to conform to these sizes.
+	 *
+	 * @param label
+	 *            specifies the label (fileName) of the picture
+	 * @param image
+	 *            specifies the picture
+	 * @param width
+	 *            specifies the width to make the picture (in pixels)
+	 * @param height
+	 *            specifies the height to make the picture (in pixels)
+	 */
+	public Picture(String label, BufferedImage image, int width, int height) {
+		this(label, sized(label, image, width, height));
+	}
+
+	private Picture(String fileName, BufferedImage bufferImage) {
+		this(fileName, bufferImage.getWidth(), bufferImage.getHeight(), bufferImage);
+	}
+
+	/**
+	 * Returns the picture in the .gif/.jpeg (or .jpg) file
+	 * <code>fileName</code>, read through an <code>ImageIcon</code>.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the file cannot be found (or it doesn't store a picture in
+	 *             it)
+	 */
+	private static BufferedImage read(String fileName) throws IllegalArgumentException {
 		// Try to read the IconImage from the file; if cannot, width is -1
 		ImageIcon temp = new ImageIcon(_tk.getImage(fileName));
 		if (temp.getIconWidth() == -1)
 			throw new IllegalArgumentException(
 					"Picture constructor: ImageIcon could not be read from file: " + fileName);
+		BufferedImage image = new BufferedImage(temp.getIconWidth(), temp.getIconHeight(),
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		temp.paintIcon(null, g, 0, 0);
+		g.dispose();
+		return image;
+	}
 
+	/**
+	 * Returns the picture stored in <code>encoded</code>, decoded by
+	 * <code>ImageDecoder</code> (which, unlike <code>ImageIcon</code>, can
+	 * decode several pictures at once, and decodes a large picture that will
+	 * be scaled to the specified width/height subsampled); if
+	 * <code>ImageIO</code> cannot decode it, it is decoded by the
+	 * <code>Toolkit</code> instead.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>encoded</code> does not store a picture
+	 */
+	private static BufferedImage decode(String label, byte[] encoded, int width, int height)
+			throws IllegalArgumentException {
+		try {
+			BufferedImage image = ImageDecoder.read(new ByteArrayInputStream(encoded), width, height);
+			if (image != null)
+				return image;
+		} catch (IOException e) {
+			// Fall through to the Toolkit, which reads some JPEGs ImageIO cannot
+		}
+		ImageIcon temp = new ImageIcon(_tk.createImage(encoded));
+		if (temp.getIconWidth() == -1)
+			throw new IllegalArgumentException("Picture constructor: picture could not be decoded: " + label);
+		BufferedImage image = new BufferedImage(temp.getIconWidth(), temp.getIconHeight(),
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		temp.paintIcon(null, g, 0, 0);
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * Returns <code>image</code> as a <code>TYPE_INT_ARGB</code> buffered
+	 * image of the specified size, scaled (by area averaging) if necessary; a
+	 * width/height of <code>Picture.NATURAL_SIZE</code> keeps the image's
+	 * width/height.
+	 */
+	private static BufferedImage sized(String label, BufferedImage image, int width, int height) {
 		// If the width/height parameters are NATURAL, reset them to be the
-		// actual width/height of the picture read from the file
+		// actual width/height of the picture
 		if (width == NATURAL_SIZE)
-			width = temp.getIconWidth();
+			width = image.getWidth();
 		if (height == NATURAL_SIZE)
-			height = temp.getIconHeight();
-
-		// If the picture needs to be scaled, do so.
-		if (width != temp.getIconWidth() || height != temp.getIconHeight())
-			temp = new ImageIcon(temp.getImage().getScaledInstance(width, height, Image.SCALE_SMOOTH));
+			height = image.getHeight();
 
 		// Create a buffered image of the picture (for getting/setting pixel
 		// values)
-		// Initialize the instance variables
-		_fileName = fileName;
-		_width = width;
-		_height = height;
-		_bufferImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-		Graphics2D g = _bufferImage.createGraphics();
-		temp.paintIcon(null, g, 0, 0);
+		if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
+			BufferedImage argb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = argb.createGraphics();
+			g.drawImage(image, 0, 0, null);
+			g.dispose();
+			image = argb;
+		}
+
+		// If the picture needs to be scaled, do so (by area averaging).
+		if (width != image.getWidth() || height != image.getHeight())
+			image = wrap(label, width, height,
+					Resampler.resize(pixelsOf(image), image.getWidth(), image.getHeight(), width, height))._bufferImage;
+		return image;
+	}
 
+	/**
+	 * Returns the packed ARGB array backing a <code>TYPE_INT_ARGB</code>
+	 * buffered image; writes to the array are writes to the image.
+	 */
+	private static int[] pixelsOf(BufferedImage bufferImage) {
+		return ((DataBufferInt) bufferImage.getRaster().getDataBuffer()).getData();
 	}
 
 	/**
@@ -106,6 +245,137 @@ public class Picture {
 		return new Picture(label, width, height, new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
 	}
 
+	/**
+	 * Returns an empty (black) gray picture with the required state: see
+	 * <code>isGray</code>.
+	 *
+	 * @param label
+	 *            specifies the label of the picture (it is not read directly
+	 *            from a file)
+	 * @param width
+	 *            specifies the width of the picture (in pixels)
+	 * @param height
+	 *            specifies the width of the picture (in pixels)
+	 *
+	 * @return an empty gray picture with the required state
+	 */
+	public static Picture makeEmptyGrayPicture(String label, int width, int height) {
+		return wrapGray(label, width, height, new byte[width * height]);
+	}
+
+	/**
+	 * Returns a picture backed directly by <code>pixels</code>: packed ARGB
+	 * values (<code>0xAARRGGBB</code>), row by row. Changes to the array
+	 * change the picture, and vice versa.
+	 *
+	 * @param label
+	 *            specifies the label of the picture (it is not read directly
+	 *            from a file)
+	 * @param width
+	 *            specifies the width of the picture (in pixels)
+	 * @param height
+	 *            specifies the height of the picture (in pixels)
+	 * @param pixels
+	 *            specifies at least <code>width*height</code> packed ARGB
+	 *            values
+	 *
+	 * @return a picture backed by <code>pixels</code>
+	 */
+	static Picture wrap(String label, int width, int height, int[] pixels) {
+		DirectColorModel cm = (DirectColorModel) ColorModel.getRGBdefault();
+		WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, width * height), width, height,
+				width, cm.getMasks(), null);
+		return new Picture(label, width, height, new BufferedImage(cm, raster, false, null));
+	}
+
+	/**
+	 * Returns a gray picture backed directly by <code>gray</code>: one value
+	 * in [0,255] (stored as a <code>byte</code>) per pixel, row by row. Its
+	 * buffered image uses a palette of the 256 grays (not a linear gray color
+	 * space), so it is drawn and saved with the same grays it stores.
+	 */
+	static Picture wrapGray(String label, int width, int height, byte[] gray) {
+		WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(gray, width * height), width,
+				height, width, 1, new int[] { 0 }, null);
+		return new Picture(label, width, height, new BufferedImage(GRAY_MODEL, raster, false, null));
+	}
+
+	/**
+	 * Returns whether this picture is stored as one byte per pixel (every
+	 * pixel having the same R, G, and B values).
+	 *
+	 * @return whether this picture is gray
+	 */
+	public boolean isGray() {
+		return _gray != null;
+	}
+
+	/**
+	 * Returns the gray values of this picture (one value in [0,255], stored as
+	 * a <code>byte</code>, per pixel), row by row (so the pixel at (x,y) is at
+	 * <code>[y*getWidth() + x]</code>), or <code>null</code> if it is not
+	 * gray. This is the array backing the picture, not a copy.
+	 *
+	 * @return the gray values of this picture, or <code>null</code>
+	 */
+	public byte[] getGrayPixels() {
+		return _gray;
+	}
+
+	/**
+	 * Stores this picture as packed ARGB values, if it is gray.
+	 */
+	private void toARGB() {
+		if (_gray == null)
+			return;
+		int[] pixels = new int[_width * _height];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = GRAY_ARGB[_gray[i] & 255];
+		_bufferImage = wrap(_fileName, _width, _height, pixels)._bufferImage;
+		_pixels = pixels;
+		_gray = null;
+	}
+
+	/**
+	 * Stores this picture (whose pixels must all be gray) as one byte per
+	 * pixel.
+	 */
+	private void toGray() {
+		if (_gray != null)
+			return;
+		byte[] gray = new byte[_width * _height];
+		for (int i = 0; i < gray.length; i++)
+			gray[i] = (byte) _pixels[i];
+		_bufferImage = wrapGray(_fileName, _width, _height, gray)._bufferImage;
+		_gray = gray;
+		_pixels = null;
+	}
+
+	/**
+	 * Returns whether every pixel filtered by <code>f</code> is gray, whatever
+	 * pixels it is given.
+	 */
+	static boolean producesGray(BulkFilter f) {
+		BulkFilter[] stages = f instanceof FilterChain ? ((FilterChain) f).getStages() : new BulkFilter[] { f };
+		boolean gray = false;
+		for (BulkFilter stage : stages)
+			if (stage instanceof GrayScaleFilter)
+				gray = ((GrayScaleFilter) stage).producesGray();
+			else if (stage instanceof LookupFilter)
+				gray &= ((LookupFilter) stage).preservesGray();
+			else
+				gray &= stage instanceof IdentityFilter || stage instanceof SeparableFilter;
+		return gray;
+	}
+
+	/**
+	 * Returns the packed ARGB value of pixel <code>i</code> (that is,
+	 * (i%width, i/width)) of this picture, whether or not it is gray.
+	 */
+	private int argb(int i) {
+		return _gray != null ? GRAY_ARGB[_gray[i] & 255] : _pixels[i];
+	}
+
 	/**
 	 * Returns a copy of this picture. Sometimes if you want a picture and a
 	 * variant of it (with slightly different RGB values): first you copy it and
@@ -118,47 +388,90 @@ public class Picture {
 	 */
 	public Picture copy(String copyName) {
 		// Create a new buffered image and into it copy the old one
-		BufferedImage biCopy = new BufferedImage(_width, _height, BufferedImage.TYPE_INT_ARGB);
-		for (int x = 0; x < _width; x++)
-			for (int y = 0; y < _height; y++)
-				biCopy.setRGB(x, y, _bufferImage.getRGB(x, y));
-
-		// Return a new Picture with everything the same except the buffered
-		// image
-		return new Picture(copyName, _width, _height, biCopy);
+		if (_gray != null)
+			return wrapGray(copyName, _width, _height, _gray.clone());
+		return wrap(copyName, _width, _height, _pixels.clone());
 	}
 
 	/**
 	 * Alters the <code>Picture</code> so that each pixel is filtered according
-	 * to <code>f</code>. A <code>null</code> leaves the picture unchanged.
+	 * to <code>f</code>. A <code>null</code> leaves the picture unchanged. If
+	 * <code>f</code> produces only gray pixels (e.g. it is, or ends with, a
+	 * <code>GrayScaleFilter</code>), the picture becomes a gray picture.
 	 *
 	 * @param f
 	 *            specifies a class that implements the <code>filter</code>
-	 *            interface (containing a <code>getFiltered</code> method
+	 *            interface (containing a <code>getFiltered</code> method;
+	 *            a <code>BulkFilter</code> is applied to strips of rows, in
+	 *            parallel for large pictures)
 	 */
 	public void filter(Filter f) {
 		if (f == null)
 			return;
 
-		Picture temp = copy("");
-		for (int x = 0; x < _width; x++)
-			for (int y = 0; y < _height; y++) {
-				int r = f.getFiltered(Filter.RED, temp, x, y);
-				int g = f.getFiltered(Filter.GREEN, temp, x, y);
-				int b = f.getFiltered(Filter.BLUE, temp, x, y);
-				setColor(x, y, r, g, b);
-			}
+		BulkFilter bf = BulkFilterAdapter.of(f);
+		toARGB();
+		filter(bf, _pixels, _pixels, _width, _height);
+		if (producesGray(bf))
+			toGray();
+		_changes++;
+	}
+
+	/**
+	 * Returns a copy of this picture, filtered according to <code>f</code>.
+	 * This takes one pass over the pixels, reading them from this picture and
+	 * storing the filtered values in the copy, instead of a pass to copy and
+	 * another to filter. A <code>null</code> filter just copies.
+	 *
+	 * @param copyName
+	 *            specifies the label (fileName) for the copy
+	 * @param f
+	 *            specifies a class that implements the <code>filter</code>
+	 *            interface
+	 *
+	 * @return a filtered copy of this picture
+	 */
+	public Picture copy(String copyName, Filter f) {
+		if (f == null)
+			return copy(copyName);
+		if (_gray != null) {
+			Picture answer = copy(copyName);
+			answer.filter(f);
+			return answer;
+		}
+		BulkFilter bf = BulkFilterAdapter.of(f);
+		Picture answer = makeEmptyPicture(copyName, _width, _height);
+		filter(bf, _pixels, answer._pixels, _width, _height);
+		if (producesGray(bf))
+			answer.toGray();
+		return answer;
+	}
 
+	/**
+	 * Filters the pixels in <code>src</code> into <code>dst</code> (which may
+	 * be the same array): the stages of a chain that is not a point filter are
+	 * applied one pass each, everything else in a single (parallel) pass.
+	 */
+	private static void filter(BulkFilter f, int[] src, int[] dst, int width, int height) {
+		if (f instanceof FilterChain && !f.isPointFilter()) {
+			((FilterChain) f).filter(src, dst, width, height);
+			return;
+		}
+		// Point filters work in place; others need the unfiltered pixels
+		if (src == dst && !f.isPointFilter())
+			src = src.clone();
+		final int[] from = src;
+		ParallelRows.forEach(height, width, (rowStart, rowEnd) -> f.filterRows(from, dst, width, height, rowStart, rowEnd));
 	}
 
 	/**
-	 * Returns the normalized color: a value between 0 and 255 inclusive, with
-	 * values outside the bounds brought inside the bounds.
+	 * Returns the opaque packed ARGB value for the specified RGB values, which
+	 * must already be in [0,255].
 	 *
-	 * @return the normalized color
+	 * @return the opaque packed ARGB value
 	 */
-	private static int normalize(int color) {
-		return Math.min(255, Math.max(color, 0));
+	static int pack(int red, int green, int blue) {
+		return (255 << 24) | (red << 16) | (green << 8) | blue;
 	}
 
 	/**
@@ -166,7 +479,8 @@ public class Picture {
 	 * shifted by <code>dR</code>, <code>dG</code>, and <code>dB</code>
 	 * respectively. The resulting values are normalized. This method shifts the
 	 * average color value down (negative values) or up (positive values):
-	 * often, for gray scale pictures, all three values are the same.
+	 * often, for gray scale pictures, all three values are the same. It is
+	 * applied as a <code>DeltaFilter</code> (a table lookup per color).
 	 *
 	 * @param dR
 	 *            specifies the amount (positive or negative) to shift the R
@@ -179,14 +493,7 @@ public class Picture {
 	 *            value
 	 */
 	public void shift(int dR, int dG, int dB) {
-		for (int x = 0; x < _width; x++)
-			for (int y = 0; y < _height; y++) {
-				Color rgb = getColor(x, y);
-				int red = normalize(rgb.getRed() + dR);
-				int green = normalize(rgb.getGreen() + dG);
-				int blue = normalize(rgb.getBlue() + dB);
-				setColor(x, y, red, green, blue);
-			}
+		filter(new DeltaFilter(new int[] { dR, dG, dB }));
 	}
 
 	/**
@@ -213,9 +520,84 @@ public class Picture {
 					"Picture.overlay failed: upperLeftX/p's width:upperLeftY/p's height illegal: " + upperLeftX + "/"
 							+ p._width + ":" + upperLeftY + "/" + p._height + "(this picture's size="
 							+ _bufferImage.getWidth() + ":" + _bufferImage.getHeight() + ")");
-		for (int x = 0; x < p._width; x++)
+		if (_gray != null && p._gray != null) {
 			for (int y = 0; y < p._height; y++)
-				setColor(upperLeftX + x, upperLeftY + y, p.getColor(x, y));
+				System.arraycopy(p._gray, y * p._width, _gray, (upperLeftY + y) * _width + upperLeftX, p._width);
+		} else if (p._gray != null) {
+			toARGB();
+			for (int y = 0; y < p._height; y++)
+				for (int x = 0, i = y * p._width, j = (upperLeftY + y) * _width + upperLeftX; x < p._width; x++)
+					_pixels[j++] = GRAY_ARGB[p._gray[i++] & 255];
+		} else {
+			toARGB();
+			for (int y = 0; y < p._height; y++)
+				System.arraycopy(p._pixels, y * p._width, _pixels, (upperLeftY + y) * _width + upperLeftX, p._width);
+		}
+		_changes++;
+	}
+
+	/**
+	 * Overlay this picture in the specified location with the entire picture
+	 * <code>p</code> scaled to the specified size, in one step (without making
+	 * a scaled copy of <code>p</code>). Each overlaid pixel is the pixel of
+	 * <code>p</code> nearest its center (as when drawing with the default
+	 * <code>Graphics2D</code> interpolation); each row of <code>p</code> that
+	 * is used for several rows is scaled once and then blitted.
+	 *
+	 * @param upperLeftX
+	 *            specifies the where in this picture the overlay starts
+	 * @param upperLeftY
+	 *            specifies the where in this picture the overlay starts
+	 * @param p
+	 *            specifies the picture to overlay onto this one
+	 * @param width
+	 *            specifies the width to scale <code>p</code> to
+	 * @param height
+	 *            specifies the height to scale <code>p</code> to
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the scaled <code>p</code> will not completely fit in the
+	 *             picture (some of its pixels would be outside the picture)
+	 */
+	public void overlay(int upperLeftX, int upperLeftY, Picture p, int width, int height)
+			throws IllegalArgumentException {
+		if (width == p._width && height == p._height) {
+			overlay(upperLeftX, upperLeftY, p);
+			return;
+		}
+		if (upperLeftX < 0 || width <= 0 || upperLeftX + width > _width || upperLeftY < 0 || height <= 0
+				|| upperLeftY + height > _height)
+			throw new IllegalArgumentException(
+					"Picture.overlay failed: upperLeftX/width:upperLeftY/height illegal: " + upperLeftX + "/" + width
+							+ ":" + upperLeftY + "/" + height + "(this picture's size=" + _width + ":" + _height
+							+ ")");
+		boolean gray = _gray != null && p._gray != null;
+		if (!gray)
+			toARGB();
+		Object pixels = gray ? _gray : _pixels;
+		int[] sourceX = new int[width];
+		for (int x = 0; x < width; x++)
+			sourceX[x] = (int) ((2L * x + 1) * p._width / (2L * width));
+		int lastSourceY = -1;
+		int lastRow = 0;
+		for (int y = 0; y < height; y++) {
+			int sourceY = (int) ((2L * y + 1) * p._height / (2L * height));
+			int row = (upperLeftY + y) * _width + upperLeftX;
+			if (sourceY == lastSourceY) {
+				System.arraycopy(pixels, lastRow, pixels, row, width);
+			} else {
+				int sourceRow = sourceY * p._width;
+				if (gray)
+					for (int x = 0; x < width; x++)
+						_gray[row + x] = p._gray[sourceRow + sourceX[x]];
+				else
+					for (int x = 0; x < width; x++)
+						_pixels[row + x] = p.argb(sourceRow + sourceX[x]);
+			}
+			lastSourceY = sourceY;
+			lastRow = row;
+		}
+		_changes++;
 	}
 
 	/**
@@ -245,14 +627,134 @@ public class Picture {
 			throw new IllegalArgumentException("Picture.extract failed: upperLeftX/width:upperLeftY/height illegal: "
 					+ upperLeftX + "/" + width + ":" + upperLeftY + "/" + height + "(this picture's size="
 					+ _bufferImage.getWidth() + ":" + _bufferImage.getHeight() + ")");
-		Picture answer = makeEmptyPicture(label, width, height);
-		for (int x = 0; x < width; x++)
+		if (_gray != null) {
+			Picture answer = makeEmptyGrayPicture(label, width, height);
 			for (int y = 0; y < height; y++)
-				answer.setColor(x, y, getColor(upperLeftX + x, upperLeftY + y));
-
+				System.arraycopy(_gray, (upperLeftY + y) * _width + upperLeftX, answer._gray, y * width, width);
+			return answer;
+		}
+		Picture answer = makeEmptyPicture(label, width, height);
+		getRegion(upperLeftX, upperLeftY, width, height, answer._pixels);
 		return answer;
 	}
 
+	/**
+	 * Returns the packed ARGB values (<code>0xAARRGGBB</code>) of one row of
+	 * this picture, copied into <code>dst</code>.
+	 *
+	 * @param y
+	 *            specifies the y (vertical) index of the row
+	 * @param dst
+	 *            specifies an array of at least <code>getWidth()</code>
+	 *            elements to copy into; if <code>null</code> a new array is
+	 *            allocated
+	 *
+	 * @return the array holding the row
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>y</code> is not a legal row in the picture
+	 */
+	public int[] getRow(int y, int[] dst) throws IllegalArgumentException {
+		if (y < 0 || y >= _height)
+			throw new IllegalArgumentException("Picture.getRow y illegal: " + y + "(" + _width + ":" + _height + ")");
+		if (dst == null)
+			dst = new int[_width];
+		if (_gray != null)
+			for (int x = 0, i = y * _width; x < _width; x++, i++)
+				dst[x] = GRAY_ARGB[_gray[i] & 255];
+		else
+			System.arraycopy(_pixels, y * _width, dst, 0, _width);
+		return dst;
+	}
+
+	/**
+	 * Sets one row of this picture from the packed ARGB values
+	 * (<code>0xAARRGGBB</code>) in <code>src</code>. The values are copied as
+	 * they are: callers are expected to supply opaque pixels.
+	 *
+	 * @param y
+	 *            specifies the y (vertical) index of the row
+	 * @param src
+	 *            specifies an array of at least <code>getWidth()</code>
+	 *            elements to copy from
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>y</code> is not a legal row in the picture
+	 */
+	public void setRow(int y, int[] src) throws IllegalArgumentException {
+		if (y < 0 || y >= _height)
+			throw new IllegalArgumentException("Picture.setRow y illegal: " + y + "(" + _width + ":" + _height + ")");
+		toARGB();
+		System.arraycopy(src, 0, _pixels, y * _width, _width);
+		_changes++;
+	}
+
+	/**
+	 * Returns the packed ARGB values (<code>0xAARRGGBB</code>) of a rectangular
+	 * region of this picture, copied row by row into <code>dst</code> (so the
+	 * pixel at (x,y) in the region is at <code>dst[y*width + x]</code>).
+	 *
+	 * @param upperLeftX
+	 *            specifies the where in this picture the region starts
+	 * @param upperLeftY
+	 *            specifies the where in this picture the region starts
+	 * @param width
+	 *            specifies the width of the region
+	 * @param height
+	 *            specifies the height of the region
+	 * @param dst
+	 *            specifies an array of at least <code>width*height</code>
+	 *            elements to copy into; if <code>null</code> a new array is
+	 *            allocated
+	 *
+	 * @return the array holding the region
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the specified region does not lie completely in this
+	 *             picture
+	 */
+	public int[] getRegion(int upperLeftX, int upperLeftY, int width, int height, int[] dst)
+			throws IllegalArgumentException {
+		if (upperLeftX < 0 || width < 0 || upperLeftX + width > _width || upperLeftY < 0 || height < 0
+				|| upperLeftY + height > _height)
+			throw new IllegalArgumentException("Picture.getRegion failed: upperLeftX/width:upperLeftY/height illegal: "
+					+ upperLeftX + "/" + width + ":" + upperLeftY + "/" + height + "(this picture's size=" + _width
+					+ ":" + _height + ")");
+		if (dst == null)
+			dst = new int[width * height];
+		for (int y = 0; y < height; y++)
+			if (_gray != null)
+				for (int x = 0, i = (upperLeftY + y) * _width + upperLeftX; x < width; x++, i++)
+					dst[y * width + x] = GRAY_ARGB[_gray[i] & 255];
+			else
+				System.arraycopy(_pixels, (upperLeftY + y) * _width + upperLeftX, dst, y * width, width);
+		return dst;
+	}
+
+	/**
+	 * Returns the packed ARGB values (<code>0xAARRGGBB</code>) of this picture,
+	 * row by row (so the pixel at (x,y) is at <code>[y*getWidth() + x]</code>).
+	 * This is the array backing the picture, not a copy: changes to it change
+	 * the picture (call <code>pixelsChanged</code> after making them, so a
+	 * displayed picture is redrawn correctly). A gray picture is first
+	 * converted to packed ARGB values (see <code>getGrayPixels</code>).
+	 *
+	 * @return the packed ARGB values of this picture
+	 */
+	public int[] getPixels() {
+		toARGB();
+		return _pixels;
+	}
+
+	/**
+	 * Records that the pixels of this picture were changed directly (through
+	 * <code>getPixels</code> or <code>getBufferImage</code>); all the other
+	 * methods that change pixels record it themselves.
+	 */
+	public void pixelsChanged() {
+		_changes++;
+	}
+
 	/**
 	 * Returns the <code>Color</code> (RGB values) for any coordinate.
 	 *
@@ -268,10 +770,10 @@ public class Picture {
 	 *             inside the pictur.
 	 */
 	public Color getColor(int x, int y) throws IllegalArgumentException {
-		if (x < 0 || x > _bufferImage.getWidth() || y < 0 || y > _bufferImage.getHeight())
+		if (x < 0 || x >= _width || y < 0 || y >= _height)
 			throw new IllegalArgumentException("Picture.getColor x:y illegal: " + x + ":" + y + "("
-					+ _bufferImage.getWidth() + ":" + _bufferImage.getHeight() + ")");
-		int rgb = _bufferImage.getRGB(x, y);
+					+ _width + ":" + _height + ")");
+		int rgb = argb(y * _width + x);
 		int red = (rgb & (255 << 16)) >> 16;
 		int green = (rgb & (255 << 8)) >> 8;
 		int blue = (rgb & 255);
@@ -301,11 +803,13 @@ public class Picture {
 	public void setColor(int x, int y, int red, int green, int blue) throws IllegalArgumentException {
 		if (red < 0 || red > 255 || green < 0 || green > 255 || blue < 0 || blue > 255)
 			throw new IllegalArgumentException("Picture.setColor R:G:B illegal: " + red + ":" + green + ":" + blue);
-		if (x < 0 || x > _bufferImage.getWidth() || y < 0 || y > _bufferImage.getHeight())
+		if (x < 0 || x >= _width || y < 0 || y >= _height)
 			throw new IllegalArgumentException("Picture.setColor x:y illegal: " + x + ":" + y + "("
-					+ _bufferImage.getWidth() + ":" + _bufferImage.getHeight() + ")");
+					+ _width + ":" + _height + ")");
 
-		_bufferImage.setRGB(x, y, (255 << 24) | (red << 16) | (green << 8) | blue);
+		toARGB();
+		_pixels[y * _width + x] = pack(red, green, blue);
+		_changes++;
 	}
 
 	/**
@@ -324,13 +828,12 @@ public class Picture {
 	 *             in the picture
 	 */
 	public void setColor(int x, int y, Color c) throws IllegalArgumentException {
-		if (x < 0 || x > _bufferImage.getWidth() || y < 0 || y > _bufferImage.getHeight())
+		if (x < 0 || x >= _width || y < 0 || y >= _height)
 			throw new IllegalArgumentException("Picture.setColor x:y illegal: " + x + ":" + y + "("
-					+ _bufferImage.getWidth() + ":" + _bufferImage.getHeight() + ")");
-		int r = c.getRed();
-		int g = c.getGreen();
-		int b = c.getBlue();
-		_bufferImage.setRGB(x, y, (255 << 24) | (r << 16) | (g << 8) | b);
+					+ _width + ":" + _height + ")");
+		toARGB();
+		_pixels[y * _width + x] = pack(c.getRed(), c.getGreen(), c.getBlue());
+		_changes++;
 	}
 
 	/**
@@ -371,7 +874,8 @@ public class Picture {
 
 	/**
 	 * Returns the buffered image of this picture. See the
-	 * <code>BufferedImage</code> class for details.
+	 * <code>BufferedImage</code> class for details. Call
+	 * <code>pixelsChanged</code> after changing it.
 	 *
 	 * @return the buffered image of this picture
 	 */
@@ -386,23 +890,35 @@ public class Picture {
 	 * @return the buffered image of this picture
 	 */
 	public Image getImage() {
-		int[] pix = new int[_width * _height];
-
-		for (int x = 0; x < _width; x++)
-			for (int y = 0; y < _height; y++) {
-				int rgb = _bufferImage.getRGB(x, y);
-				pix[y * _width + x] = rgb;
-			}
-
+		int[] pix = getRegion(0, 0, _width, _height, null);
 		return _jp.createImage(new MemoryImageSource(_width, _height, pix, 0, _width));
 	}
 
+	/**
+	 * Returns a copy of this picture scaled to the specified size, by area
+	 * averaging (each pixel of the copy is the average of the pixels of this
+	 * picture that it covers).
+	 *
+	 * @param width
+	 *            specifies the width of the copy (in pixels)
+	 * @param height
+	 *            specifies the height of the copy (in pixels)
+	 *
+	 * @return a scaled copy of this picture
+	 */
 	public Picture scale(int width, int height) {
-		BufferedImage resizedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-		Graphics2D g = resizedImage.createGraphics();
-		g.drawImage(_bufferImage, 0, 0, width, height, null);
-		g.dispose();
-		return new Picture(_fileName, width, height, resizedImage);
+		// A gray picture is expanded into a buffer this thread reuses
+		int[] pixels = _pixels;
+		if (_gray != null) {
+			pixels = SCALE_PIXELS.get();
+			if (pixels.length < _width * _height)
+				SCALE_PIXELS.set(pixels = new int[_width * _height]);
+			getRegion(0, 0, _width, _height, pixels);
+		}
+		Picture answer = wrap(_fileName, width, height, Resampler.resize(pixels, _width, _height, width, height));
+		if (_gray != null)
+			answer.toGray();
+		return answer;
 	}
 
 	/**
@@ -436,8 +952,11 @@ public class Picture {
 	 *            corner of the picture
 	 */
 	public void display(JFrame toDisplay, int x, int y) {
+		// Large pictures get a window that fits on the screen, showing a
+		// preview scaled to fit the window
+		Dimension screen = _tk.getScreenSize();
 		toDisplay.setTitle(_fileName + ": " + _width + " x " + _height);
-		toDisplay.setSize(_width + 10, _height + 30);
+		toDisplay.setSize(Math.min(_width + 10, screen.width), Math.min(_height + 30, screen.height));
 		if (x >= 0 && y >= 0)
 			toDisplay.setLocation(x, y);
 		toDisplay.getContentPane().removeAll();
@@ -450,12 +969,18 @@ public class Picture {
 	private String _fileName;
 	private int _width, _height;
 	private BufferedImage _bufferImage;
+	private int[] _pixels;
+	private byte[] _gray;
+	private volatile int _changes;
 
 	// Fields (Static)
 
 	static Toolkit _tk = Toolkit.getDefaultToolkit();
 	static JPanel _jp = new JPanel();
 
+	// Each thread expands the gray pictures it scales into the same buffer
+	private static final ThreadLocal<int[]> SCALE_PIXELS = ThreadLocal.withInitial(() -> new int[0]);
+
 	/**
 	 * This value be used in the constructor(s) to specify that the actual
 	 * height/width of the picture should be used. Otherwise it will be scaled
@@ -463,21 +988,51 @@ public class Picture {
 	 */
 	public static final int NATURAL_SIZE = -1;
 
+	// GRAY_MODEL is the palette of the 256 grays used by gray pictures;
+	// GRAY_ARGB[v] is the packed ARGB value of gray v
+	private static final IndexColorModel GRAY_MODEL;
+	static final int[] GRAY_ARGB = new int[256];
+	static {
+		byte[] grays = new byte[256];
+		for (int v = 0; v < 256; v++) {
+			grays[v] = (byte) v;
+			GRAY_ARGB[v] = pack(v, v, v);
+		}
+		GRAY_MODEL = new IndexColorModel(8, 256, grays, grays, grays);
+	}
+
 	// GIFPainter is used in display; it overrides the paint method
 	// of a standard JPanel to draw the image in the content
-	// pane of the JFrame.
+	// pane of the JFrame. It draws the buffered image itself when it fits
+	// in the panel; otherwise it draws a preview scaled to fit, which it
+	// keeps until the panel is resized or the picture is changed.
 	private class GIFPainter extends JPanel {
 		public GIFPainter(Picture p) {
 			picture = p;
+			setBackground(Color.white);
 		}
 
 		public void paint(Graphics g) {
 			super.paint(g);
-			setBackground(Color.white);
-			g.drawImage(picture.getImage(), 0, 0, null);
+			int width = getWidth(), height = getHeight();
+			if (picture._width <= width && picture._height <= height) {
+				g.drawImage(picture._bufferImage, 0, 0, null);
+				return;
+			}
+			double ratio = Math.min(width * 1.0 / picture._width, height * 1.0 / picture._height);
+			int previewWidth = Math.max(1, (int) (picture._width * ratio));
+			int previewHeight = Math.max(1, (int) (picture._height * ratio));
+			if (preview == null || preview._width != previewWidth || preview._height != previewHeight
+					|| previewChanges != picture._changes) {
+				preview = picture.scale(previewWidth, previewHeight);
+				previewChanges = picture._changes;
+			}
+			g.drawImage(preview._bufferImage, 0, 0, null);
 		}
 
 		private Picture picture;
+		private Picture preview;
+		private int previewChanges;
 	}
 
 }
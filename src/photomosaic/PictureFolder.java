@@ -0,0 +1,234 @@
+package photomosaic;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * The <code>PictureFolder</code> class tracks the picture files in a folder
+ * (and its subfolders) so that a database of pictures loaded from it can be
+ * kept up to date by loading only the pictures that were added or changed,
+ * and removing those that were deleted. It keeps a manifest of every picture
+ * file's size, last-modified time, and content hash, and watches the folders
+ * with a <code>WatchService</code>: a <code>sync</code> after the first one
+ * looks only at the files the watcher reports, so a folder of tens of
+ * thousands of pictures is not listed again when a few hundred are added.
+ * A file whose size or time changed but whose contents did not (e.g. one
+ * copied over itself) is not reported as changed.
+ */
+class PictureFolder implements Closeable {
+	/**
+	 * The <code>Changes</code> class stores the changes to the picture files
+	 * in the folder since the previous <code>sync</code>.
+	 */
+	static class Changes {
+		/** the picture files added or changed (to be loaded) */
+		final List<Path> loaded = new ArrayList<Path>();
+		/** the picture files changed or deleted (to be removed) */
+		final List<Path> removed = new ArrayList<Path>();
+
+		public boolean isEmpty() {
+			return loaded.isEmpty() && removed.isEmpty();
+		}
+	}
+
+	// What the manifest records about a picture file
+	private static class Entry {
+		final long size, modified;
+		final byte[] hash;
+
+		Entry(long size, long modified, byte[] hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+
+	private final Path root;
+	private final WatchService watcher;
+	private final Map<WatchKey, Path> watched = new HashMap<WatchKey, Path>();
+	private final Map<Path, Entry> manifest = new HashMap<Path, Entry>();
+	private boolean scanned;
+
+	/**
+	 * Constructs a tracker for the picture files in the folder
+	 * <code>root</code>; the first <code>sync</code> reports all of them as
+	 * added.
+	 *
+	 * @param root
+	 *            specifies the folder
+	 *
+	 * @throws IOException
+	 *             if the folder cannot be watched
+	 */
+	public PictureFolder(Path root) throws IOException {
+		this.root = root.toAbsolutePath();
+		this.watcher = root.getFileSystem().newWatchService();
+		watchAll(this.root);
+	}
+
+	/**
+	 * Returns the folder whose picture files are tracked.
+	 *
+	 * @return the folder
+	 */
+	public Path getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns the changes to the picture files in the folder since the
+	 * previous <code>sync</code> (or all of them, for the first), recording
+	 * them in the manifest.
+	 *
+	 * @return the changes
+	 *
+	 * @throws IOException
+	 *             if the folder cannot be read
+	 */
+	public synchronized Changes sync() throws IOException {
+		Set<Path> candidates = new LinkedHashSet<Path>();
+		if (!scanned || !pollWatcher(candidates)) {
+			// List everything: every file on disk, and every file in the
+			// manifest (which may no longer be on disk)
+			candidates.clear();
+			candidates.addAll(PictureLoader.picturesIn(root));
+			candidates.addAll(manifest.keySet());
+			scanned = true;
+		}
+		Changes changes = new Changes();
+		for (Path file : candidates)
+			check(file, changes);
+		return changes;
+	}
+
+	/**
+	 * Adds to <code>candidates</code> the picture files the watcher reports
+	 * may have changed (including those in new folders, which are watched
+	 * from now on, and those in deleted folders). Returns false if the watcher
+	 * lost events, so the whole folder must be listed instead.
+	 */
+	private boolean pollWatcher(Set<Path> candidates) throws IOException {
+		boolean complete = true;
+		for (WatchKey key; (key = watcher.poll()) != null;) {
+			Path dir = watched.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == OVERFLOW || dir == null) {
+					complete = false;
+					continue;
+				}
+				Path file = dir.resolve((Path) event.context());
+				if (Files.isDirectory(file)) {
+					if (event.kind() == ENTRY_CREATE) {
+						watchAll(file);
+						candidates.addAll(PictureLoader.picturesIn(file));
+					}
+				} else if (PictureLoader.isPicture(file.getFileName().toString()))
+					candidates.add(file);
+				if (event.kind() == ENTRY_DELETE)
+					// It may have been a folder: check all the files in it
+					for (Path known : manifest.keySet())
+						if (known.startsWith(file))
+							candidates.add(known);
+			}
+			if (!key.reset())
+				watched.remove(key);
+		}
+		return complete;
+	}
+
+	/**
+	 * Compares <code>file</code> with its manifest entry, updating the entry
+	 * and recording in <code>changes</code> whether it was added, changed, or
+	 * deleted.
+	 */
+	private void check(Path file, Changes changes) throws IOException {
+		Entry old = manifest.get(file);
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			attributes = null;
+		}
+		if (attributes == null || !attributes.isRegularFile()) {
+			if (manifest.remove(file) != null)
+				changes.removed.add(file);
+			return;
+		}
+		long size = attributes.size(), modified = attributes.lastModifiedTime().toMillis();
+		if (old != null && old.size == size && old.modified == modified)
+			return;
+		byte[] hash;
+		try {
+			hash = hash(file);
+		} catch (NoSuchFileException e) {
+			// Deleted since it was listed: the watcher will report it
+			return;
+		}
+		manifest.put(file, new Entry(size, modified, hash));
+		if (old != null && Arrays.equals(old.hash, hash))
+			return;
+		if (old != null)
+			changes.removed.add(file);
+		changes.loaded.add(file);
+	}
+
+	/**
+	 * Returns the content hash (SHA-256) of the file.
+	 */
+	static byte[] hash(Path file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] buffer = new byte[1 << 16];
+		try (InputStream in = Files.newInputStream(file)) {
+			for (int n; (n = in.read(buffer)) != -1;)
+				digest.update(buffer, 0, n);
+		}
+		return digest.digest();
+	}
+
+	// Watches dir and all the folders in it
+	private void watchAll(Path dir) throws IOException {
+		try (Stream<Path> dirs = Files.walk(dir)) {
+			for (Iterator<Path> i = dirs.filter(Files::isDirectory).iterator(); i.hasNext();) {
+				Path d = i.next();
+				watched.put(d.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), d);
+			}
+		}
+	}
+
+	/**
+	 * Stops watching the folder.
+	 */
+	@Override
+	public void close() throws IOException {
+		watcher.close();
+	}
+}
@@ -0,0 +1,180 @@
+package photomosaic;
+
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The <code>PictureHash</code> class stores the hashes used to find duplicate
+ * pictures in a database: a content hash (SHA-256) of the picture's file,
+ * equal for exact copies; and a difference hash (dHash) of the picture, a
+ * 64-bit perceptual hash that differs in few bits for near copies (the same
+ * picture re-exported, resized, or recompressed, or the next shot of a
+ * burst). The difference hash records, for a 9x8 gray thumbnail of the
+ * picture, whether each pixel is darker than the one to its right; since it
+ * ignores color (and overall brightness), the average color of the picture is
+ * stored too, so pictures with the same shapes but different colors (which
+ * are different tiles to a photomosaic) are not near copies.
+ */
+final class PictureHash {
+	private final byte[] content;
+	private final long difference;
+	private final int color;
+
+	PictureHash(byte[] content, long difference, int color) {
+		this.content = content;
+		this.difference = difference;
+		this.color = color;
+	}
+
+	/**
+	 * Returns the hashes of a picture.
+	 *
+	 * @param encoded
+	 *            specifies the contents of the picture's file
+	 * @param p
+	 *            specifies the picture (decoded, before it is filtered)
+	 *
+	 * @return the hashes of the picture
+	 */
+	public static PictureHash of(byte[] encoded, Picture p) {
+		int[] pixels = p.getPixels();
+		int[] small = Resampler.resize(pixels, p.getWidth(), p.getHeight(), HASH_WIDTH + 1, HASH_HEIGHT);
+		long difference = 0;
+		for (int y = 0; y < HASH_HEIGHT; y++)
+			for (int x = 0; x < HASH_WIDTH; x++) {
+				int i = y * (HASH_WIDTH + 1) + x;
+				difference = difference << 1 | (luminance(small[i]) < luminance(small[i + 1]) ? 1 : 0);
+			}
+		int color = Resampler.resize(pixels, p.getWidth(), p.getHeight(), 1, 1)[0];
+		return new PictureHash(sha256(encoded), difference, color);
+	}
+
+	/**
+	 * Returns the hashes of a picture cropped from the picture in a file (see
+	 * <code>PictureLoader.setCrops</code>): its content hash is of the file's
+	 * contents and the crop, so the same crop of a copy of the file is an
+	 * exact copy, but other crops of the same file are not. The hashes are
+	 * made from the summed-area tables of the decoded picture, whose cells'
+	 * average colors are the 9x8 thumbnail, so a crop can be checked for
+	 * being a duplicate before its pixels are copied and scaled.
+	 *
+	 * @param encoded
+	 *            specifies the contents of the picture's file
+	 * @param image
+	 *            specifies the summed-area tables of the decoded picture
+	 *            (before it is filtered)
+	 * @param crop
+	 *            specifies the crop (in the decoded picture)
+	 *
+	 * @return the hashes of the cropped picture
+	 */
+	public static PictureHash of(byte[] encoded, IntegralImage image, Rectangle crop) {
+		int[] small = new int[(HASH_WIDTH + 1) * HASH_HEIGHT];
+		for (int y = 0; y < HASH_HEIGHT; y++) {
+			int top = cell(crop.y, crop.height, y, HASH_HEIGHT), bottom = cell(crop.y, crop.height, y + 1, HASH_HEIGHT);
+			for (int x = 0; x <= HASH_WIDTH; x++) {
+				int left = cell(crop.x, crop.width, x, HASH_WIDTH + 1),
+						right = cell(crop.x, crop.width, x + 1, HASH_WIDTH + 1);
+				small[y * (HASH_WIDTH + 1) + x] = image.getAverage(left, top, Math.max(1, right - left),
+						Math.max(1, bottom - top));
+			}
+		}
+		long difference = 0;
+		for (int y = 0; y < HASH_HEIGHT; y++)
+			for (int x = 0; x < HASH_WIDTH; x++) {
+				int i = y * (HASH_WIDTH + 1) + x;
+				difference = difference << 1 | (luminance(small[i]) < luminance(small[i + 1]) ? 1 : 0);
+			}
+		int color = image.getAverage(crop.x, crop.y, crop.width, crop.height);
+		byte[] content = sha256(encoded, ByteBuffer.allocate(16).putInt(crop.x).putInt(crop.y).putInt(crop.width)
+				.putInt(crop.height).array());
+		return new PictureHash(content, difference, color);
+	}
+
+	// Returns where the n-th of cells cells of the span [start, start+size)
+	// starts (the last pixel of the span, if it is narrower than cells)
+	private static int cell(int start, int size, int n, int cells) {
+		return start + Math.min(size - 1, n * size / cells);
+	}
+
+	/**
+	 * Returns the content hash (SHA-256) of the picture's file.
+	 *
+	 * @return the content hash (it must not be changed)
+	 */
+	public byte[] getContent() {
+		return content;
+	}
+
+	/**
+	 * Returns the difference hash (dHash) of the picture.
+	 *
+	 * @return the difference hash
+	 */
+	public long getDifference() {
+		return difference;
+	}
+
+	/**
+	 * Returns the average color of the picture, as a packed RGB value.
+	 *
+	 * @return the average color
+	 */
+	public int getColor() {
+		return color;
+	}
+
+	/**
+	 * Returns whether the pictures are exact copies (their files have the
+	 * same contents).
+	 */
+	public boolean isCopyOf(PictureHash other) {
+		return Arrays.equals(content, other.content);
+	}
+
+	/**
+	 * Returns whether the pictures are near copies: their difference hashes
+	 * differ in at most <code>maxDistance</code> bits, and their average
+	 * colors by at most <code>COLOR_TOLERANCE</code> in each component.
+	 */
+	public boolean isNearCopyOf(PictureHash other, int maxDistance) {
+		if (distance(difference, other.difference) > maxDistance)
+			return false;
+		for (int shift = 0; shift < 24; shift += 8)
+			if (Math.abs((color >> shift & 0xff) - (other.color >> shift & 0xff)) > COLOR_TOLERANCE)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns the number of bits in which two difference hashes differ (their
+	 * Hamming distance).
+	 */
+	public static int distance(long a, long b) {
+		return Long.bitCount(a ^ b);
+	}
+
+	private static int luminance(int rgb) {
+		return 299 * (rgb >> 16 & 0xff) + 587 * (rgb >> 8 & 0xff) + 114 * (rgb & 0xff);
+	}
+
+	private static byte[] sha256(byte[]... parts) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (byte[] part : parts)
+				digest.update(part);
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** the size of the gray thumbnail compared by the difference hash */
+	static final int HASH_WIDTH = 8, HASH_HEIGHT = 8;
+
+	/** the most near copies' average colors may differ in each component */
+	static final int COLOR_TOLERANCE = 16;
+}
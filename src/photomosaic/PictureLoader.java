@@ -0,0 +1,417 @@
+package photomosaic;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The <code>PictureLoader</code> class loads pictures into a database: for
+ * each file it reads the file, decodes and scales the picture, filters it,
+ * and summarizes it with a metric. These run as a pipeline over all the
+ * processors: a few threads read files while the others decode, scale,
+ * filter, and summarize the files already read. At most a fixed number of
+ * files are in the pipeline at once (a new one is started only when the
+ * oldest one is finished), so memory use does not grow with the number of
+ * files; and the loaded pictures are returned in the order of the files,
+ * whatever order they finish in.
+ *
+ * Optionally, a picture whose file embeds a large enough thumbnail (as most
+ * camera JPEGs do) is made by scaling the thumbnail instead of decoding the
+ * whole picture. Optionally, pictures that are exact or near copies of ones
+ * already loaded are dropped (see <code>DuplicateIndex</code>); the first
+ * copy, in the order of the files, is kept. Optionally, each picture gives
+ * several tiles, cropped from it (see <code>setCrops</code>).
+ */
+class PictureLoader {
+	/**
+	 * The <code>Progress</code> interface specifies how a loader reports its
+	 * progress; it is called in the thread that called <code>load</code>, at
+	 * most every <code>PROGRESS_MILLIS</code> milliseconds.
+	 */
+	interface Progress {
+		public void loaded(int done, int total);
+	}
+
+	private final int width, height;
+	private final Filter filter;
+	private final Metric metric;
+	private final ArrayList<String> failed = new ArrayList<String>();
+	private boolean useThumbnails;
+	private boolean compactTiles, compressTiles;
+	private int cropsPerSide;
+	private boolean salientCrops;
+	private DuplicateIndex duplicates;
+	private final AtomicInteger dropped = new AtomicInteger();
+	private final AtomicInteger fromThumbnails = new AtomicInteger();
+	private final AtomicInteger fromPictures = new AtomicInteger();
+
+	/**
+	 * Constructs a loader that scales pictures to the specified size, then
+	 * filters them with <code>filter</code> (if it is not <code>null</code>)
+	 * and summarizes them with (copies of) <code>metric</code>.
+	 */
+	public PictureLoader(int width, int height, Filter filter, Metric metric) {
+		this.width = width;
+		this.height = height;
+		this.filter = filter;
+		this.metric = metric;
+	}
+
+	/**
+	 * Returns the picture files (.jpg, .jpeg, .gif, and .png) in the folder
+	 * <code>root</code> and all its subfolders, in order of their names. The
+	 * folder may be in any file system: e.g. the root of a .zip archive opened
+	 * as a <code>FileSystem</code>, whose pictures are then loaded straight
+	 * from the archive.
+	 *
+	 * @param root
+	 *            specifies the folder to search
+	 *
+	 * @return the picture files in the folder
+	 *
+	 * @throws IOException
+	 *             if the folder cannot be read
+	 */
+	public static List<Path> picturesIn(Path root) throws IOException {
+		try (Stream<Path> paths = Files.walk(root)) {
+			return paths.filter(p -> Files.isRegularFile(p) && isPicture(p.getFileName().toString()))
+					.sorted().collect(Collectors.toList());
+		}
+	}
+
+	static boolean isPicture(String name) {
+		name = name.toLowerCase();
+		for (String suffix : PICTURE_SUFFIXES)
+			if (name.endsWith(suffix))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns the database entries for the pictures in <code>files</code>, in
+	 * the same order; files whose pictures cannot be read are skipped (see
+	 * <code>getFailed</code>), as are duplicates (see
+	 * <code>setDuplicateIndex</code>).
+	 *
+	 * @param files
+	 *            specifies the files to load
+	 * @param progress
+	 *            specifies where to report progress (or <code>null</code>)
+	 *
+	 * @return the database entries for the pictures that were loaded
+	 */
+	public ArrayList<PhotomosaicInfo> load(List<Path> files, Progress progress) {
+		int processors = Runtime.getRuntime().availableProcessors();
+		ExecutorService readers = Executors.newFixedThreadPool(READERS, DAEMON);
+		ExecutorService workers = Executors.newFixedThreadPool(processors, DAEMON);
+		int window = READERS + 2 * processors;
+		ArrayList<PhotomosaicInfo> loaded = new ArrayList<PhotomosaicInfo>(files.size());
+		ArrayDeque<CompletableFuture<List<PhotomosaicInfo>>> inPipeline = new ArrayDeque<CompletableFuture<List<PhotomosaicInfo>>>();
+		long lastReport = System.currentTimeMillis();
+		try {
+			int done = 0;
+			for (int next = 0; done < files.size();) {
+				// Fill the pipeline; then wait for its oldest file
+				while (next < files.size() && inPipeline.size() < window) {
+					Path file = files.get(next++);
+					inPipeline.add(CompletableFuture.supplyAsync(() -> read(file), readers)
+							.thenApplyAsync(bytes -> bytes == null ? null : process(label(file), bytes), workers));
+				}
+				for (PhotomosaicInfo info : finish(inPipeline.remove(), files.get(done)))
+					if (duplicates != null && !duplicates.add(info.getHash()))
+						dropped.incrementAndGet();
+					else
+						loaded.add(info);
+				done++;
+				if (progress != null && System.currentTimeMillis() - lastReport >= PROGRESS_MILLIS) {
+					progress.loaded(done, files.size());
+					lastReport = System.currentTimeMillis();
+				}
+			}
+		} finally {
+			readers.shutdownNow();
+			workers.shutdownNow();
+		}
+		return loaded;
+	}
+
+	/**
+	 * Returns the contents of <code>file</code>, or <code>null</code> (after
+	 * recording it as failed) if it cannot be read.
+	 */
+	private byte[] read(Path file) {
+		try {
+			return Files.readAllBytes(file);
+		} catch (IOException e) {
+			fail(label(file));
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the database entries for the picture in <code>encoded</code>:
+	 * decoded (or its thumbnail decoded), scaled, filtered, and summarized; or
+	 * for each of its crops, if it is cropped.
+	 */
+	List<PhotomosaicInfo> process(String label, byte[] encoded) {
+		if (cropsPerSide > 0)
+			return processCrops(label, encoded);
+		BufferedImage thumbnail = null;
+		if (useThumbnails)
+			try {
+				thumbnail = ImageDecoder.readThumbnail(encoded, width, height);
+			} catch (IOException e) {
+				// Decode the whole picture instead
+			}
+		Picture p;
+		if (thumbnail != null) {
+			p = new Picture(label, thumbnail, width, height);
+			fromThumbnails.incrementAndGet();
+		} else {
+			p = new Picture(label, encoded, width, height);
+			fromPictures.incrementAndGet();
+		}
+		PictureHash hash = duplicates == null ? null : PictureHash.of(encoded, p);
+		return Collections.singletonList(finish(p, hash));
+	}
+
+	/**
+	 * Returns the database entries for the crops of the picture in
+	 * <code>encoded</code> (see <code>setCrops</code>). The picture is decoded
+	 * once, subsampled to no less than <code>OVERSAMPLE</code> times the tile
+	 * size per crop; the crops are chosen and hashed through its summed-area
+	 * tables, and only the chosen ones that are not duplicates of pictures
+	 * already loaded are copied and scaled to tiles (whether they duplicate
+	 * each other, or pictures still in the pipeline, is decided in
+	 * <code>load</code>, in the order of the files).
+	 */
+	private List<PhotomosaicInfo> processCrops(String label, byte[] encoded) {
+		BufferedImage image;
+		try {
+			Dimension size = ImageDecoder.size(new ByteArrayInputStream(encoded));
+			image = null;
+			if (size != null) {
+				Dimension crop = CropSelector.cropSize(size.width, size.height, width, height, cropsPerSide);
+				image = ImageDecoder.read(new ByteArrayInputStream(encoded),
+						(int) ((long) width * size.width / crop.width), (int) ((long) height * size.height / crop.height));
+			}
+		} catch (IOException e) {
+			image = null;
+		}
+		if (image == null)
+			throw new IllegalArgumentException("PictureLoader: picture could not be decoded: " + label);
+		fromPictures.incrementAndGet();
+		Picture whole = new Picture(label, image, Picture.NATURAL_SIZE, Picture.NATURAL_SIZE);
+		IntegralImage integral = new IntegralImage(whole);
+		List<Rectangle> crops = CropSelector.select(integral, width, height, cropsPerSide, salientCrops);
+		ArrayList<PhotomosaicInfo> infos = new ArrayList<PhotomosaicInfo>(crops.size());
+		int[] region = null;
+		for (int n = 0; n < crops.size(); n++) {
+			Rectangle r = crops.get(n);
+			PictureHash hash = duplicates == null ? null : PictureHash.of(encoded, integral, r);
+			if (hash != null && duplicates.contains(hash)) {
+				dropped.incrementAndGet();
+				continue;
+			}
+			region = whole.getRegion(r.x, r.y, r.width, r.height,
+					region != null && region.length >= r.width * r.height ? region : null);
+			Picture p = Picture.wrap(label + CROP_SEPARATOR + (n + 1), width, height,
+					Resampler.resize(region, r.width, r.height, width, height));
+			infos.add(finish(p, hash));
+		}
+		return infos;
+	}
+
+	/**
+	 * Returns the database entry for the scaled picture <code>p</code> (with
+	 * the hashes <code>hash</code>): filtered and summarized.
+	 */
+	private PhotomosaicInfo finish(Picture p, PictureHash hash) {
+		p.filter(filter);
+		Metric m = metric.copy();
+		m.makeSummary(p);
+		PhotomosaicInfo info = new PhotomosaicInfo(m, p);
+		info.setHash(hash);
+		if (compactTiles)
+			info.compact(compressTiles);
+		return info;
+	}
+
+	/**
+	 * Waits for a file to leave the pipeline, returning its database entries
+	 * (none if its picture could not be read). Any exception reading it (a
+	 * corrupt file can make a decoder throw almost anything, e.g.
+	 * <code>ArrayIndexOutOfBoundsException</code> or
+	 * <code>CMMException</code>) just records the file as failed; only an
+	 * <code>Error</code> stops the load.
+	 */
+	private List<PhotomosaicInfo> finish(CompletableFuture<List<PhotomosaicInfo>> f, Path file) {
+		try {
+			List<PhotomosaicInfo> infos = f.join();
+			return infos != null ? infos : Collections.<PhotomosaicInfo>emptyList();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			fail(label(file));
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Returns the label of the picture in <code>file</code>: its name, which
+	 * for a file in an archive is prefixed by the archive's name and a !.
+	 */
+	static String label(Path file) {
+		if (file.getFileSystem() == FileSystems.getDefault())
+			return file.toString();
+		return file.getFileSystem() + "!" + file;
+	}
+
+	/**
+	 * Returns the label of the file the picture named <code>name</code> was
+	 * loaded from: its name, without the number of the crop if it is a crop
+	 * (see <code>setCrops</code>) and anything appended after that.
+	 */
+	static String fileLabel(String name) {
+		int crop = name.lastIndexOf(CROP_SEPARATOR);
+		return crop == -1 ? name : name.substring(0, crop);
+	}
+
+	private synchronized void fail(String label) {
+		failed.add(label);
+	}
+
+	/**
+	 * Returns the names of the files whose pictures could not be read.
+	 *
+	 * @return the names of the files that failed to load
+	 */
+	public synchronized List<String> getFailed() {
+		return new ArrayList<String>(failed);
+	}
+
+	/**
+	 * Sets whether pictures are made from the thumbnails embedded in their
+	 * files, when these are at least the size of the pictures being loaded.
+	 *
+	 * @param useThumbnails
+	 *            specifies whether to use embedded thumbnails
+	 */
+	public void setUseThumbnails(boolean useThumbnails) {
+		this.useThumbnails = useThumbnails;
+	}
+
+	/**
+	 * Sets the index used to drop pictures that are duplicates of ones in it
+	 * (or of ones loaded before them); loaded pictures are added to the index.
+	 *
+	 * @param duplicates
+	 *            specifies the index, or <code>null</code> to keep duplicates
+	 */
+	public void setDuplicateIndex(DuplicateIndex duplicates) {
+		this.duplicates = duplicates;
+	}
+
+	/**
+	 * Sets whether the pixels of pictures are kept compactly (see
+	 * <code>CompactTile</code>) once they are summarized, rather than as
+	 * pictures.
+	 *
+	 * @param compact
+	 *            specifies whether to keep pixels compactly
+	 * @param compress
+	 *            specifies whether to compress them too
+	 */
+	public void setCompactTiles(boolean compact, boolean compress) {
+		this.compactTiles = compact;
+		this.compressTiles = compress;
+	}
+
+	/**
+	 * Sets how many tiles each picture gives: if <code>perSide</code> is 0,
+	 * one (the whole picture, scaled); otherwise up to
+	 * <code>perSide * perSide</code>, cropped from it (see
+	 * <code>CropSelector</code>), on a grid or where it has the most detail.
+	 * A crop is named by its picture's label followed by
+	 * <code>CROP_SEPARATOR</code> and its number. Cropped pictures are always
+	 * decoded whole (embedded thumbnails are too small to crop).
+	 *
+	 * @param perSide
+	 *            specifies the number of crops per side (0 for none)
+	 * @param salient
+	 *            specifies whether to choose the crops with the most detail,
+	 *            rather than those on a grid
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>perSide</code> is negative
+	 */
+	public void setCrops(int perSide, boolean salient) throws IllegalArgumentException {
+		if (perSide < 0)
+			throw new IllegalArgumentException("PictureLoader.setCrops perSide illegal: " + perSide);
+		this.cropsPerSide = perSide;
+		this.salientCrops = salient;
+	}
+
+	/**
+	 * Returns how many pictures were dropped as duplicates.
+	 *
+	 * @return the number of duplicates dropped
+	 */
+	public int getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns how many pictures were made from embedded thumbnails.
+	 *
+	 * @return the number of pictures made from thumbnails
+	 */
+	public int getFromThumbnails() {
+		return fromThumbnails.get();
+	}
+
+	/**
+	 * Returns how many pictures were made by decoding the whole picture.
+	 *
+	 * @return the number of pictures made from whole pictures
+	 */
+	public int getFromPictures() {
+		return fromPictures.get();
+	}
+
+	/** the suffixes of the names of picture files */
+	static final String[] PICTURE_SUFFIXES = { ".jpg", ".jpeg", ".gif", ".png" };
+
+	/** what separates the label of a picture from the number of a crop of it */
+	static final String CROP_SEPARATOR = "#crop";
+
+	/** the number of threads that read files */
+	static final int READERS = 4;
+
+	/** the least time between progress reports (in milliseconds) */
+	static final long PROGRESS_MILLIS = 500;
+
+	// Threads of the loader do not keep the application running
+	private static final ThreadFactory DAEMON = r -> {
+		Thread t = new Thread(r, "PictureLoader");
+		t.setDaemon(true);
+		return t;
+	};
+}
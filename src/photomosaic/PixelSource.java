@@ -0,0 +1,38 @@
+package photomosaic;
+
+/**
+ * The <code>PixelSource</code> interface specifies where the pixels of a
+ * picture in a database are kept when they are not kept in a
+ * <code>Picture</code> of their own: e.g. in a database file mapped into
+ * memory, shared by every program using it (see
+ * <code>DatabaseSnapshot.map</code>). The pixels are read only when needed;
+ * they cannot be changed.
+ */
+interface PixelSource {
+	/**
+	 * Returns the width of the picture (in pixels), without reading it.
+	 */
+	public int getWidth();
+
+	/**
+	 * Returns the height of the picture (in pixels), without reading it.
+	 */
+	public int getHeight();
+
+	/**
+	 * Returns the name of the picture, without reading it.
+	 */
+	public String getName();
+
+	/**
+	 * Returns whether the picture is gray (see <code>Picture.isGray</code>),
+	 * without reading it.
+	 */
+	public boolean isGray();
+
+	/**
+	 * Returns the picture, read into a new <code>Picture</code> (so changing
+	 * it does not change the source).
+	 */
+	public Picture load();
+}
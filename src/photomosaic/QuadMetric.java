@@ -55,6 +55,11 @@ class QuadMetric implements Metric {
 		this.lr = lr;
 	}
 
+	/** Returns the metric used for each quadrant (its upper left one). */
+	public Metric getQuadrantMetric() {
+		return ul;
+	}
+
 	public Metric copy() {
 		return new QuadMetric(ul.copy(), ur.copy(), ll.copy(), lr.copy());
 	}
@@ -65,13 +70,46 @@ class QuadMetric implements Metric {
 
 	public void makeSummary(Picture p, int rowStart, int columnStart, int width, int height) {
 		ul.makeSummary(p, rowStart, columnStart, width / 2, height / 2);
-		ur.makeSummary(p, rowStart, columnStart + height / 2, width / 2, height / 2);
-		ll.makeSummary(p, rowStart + width / 2, columnStart, width / 2, height / 2);
-		lr.makeSummary(p, rowStart + width / 2, columnStart + height / 2, width / 2, height / 2);
+		ur.makeSummary(p, rowStart, columnStart + width / 2, width / 2, height / 2);
+		ll.makeSummary(p, rowStart + height / 2, columnStart, width / 2, height / 2);
+		lr.makeSummary(p, rowStart + height / 2, columnStart + width / 2, width / 2, height / 2);
+	}
+
+	public boolean makeSummary(Metric m, LookupFilter f) {
+		QuadMetric base = (QuadMetric) m;
+		return ul.makeSummary(base.ul, f) && ur.makeSummary(base.ur, f) && ll.makeSummary(base.ll, f)
+				&& lr.makeSummary(base.lr, f);
+	}
+
+	public void makeSummary(Metric m, Orientation o) {
+		// Each quadrant is one of the picture's quadrants, moved
+		Metric[] quadrants = { ul, ur, ll, lr };
+		Metric[] from = { ((QuadMetric) m).ul, ((QuadMetric) m).ur, ((QuadMetric) m).ll, ((QuadMetric) m).lr };
+		for (int q = 0; q < 4; q++)
+			quadrants[q].makeSummary(from[o.quadrantFrom(q)], o);
 	}
 
 	public double distanceTo(Metric m) {
 		QuadMetric m2 = (QuadMetric) m;
 		return ul.distanceTo(m2.ul) + ur.distanceTo(m2.ur) + ll.distanceTo(m2.ll) + lr.distanceTo(m2.lr);
 	}
+
+	public int[] getSummary() {
+		Metric[] quadrants = { ul, ur, ll, lr };
+		int n = ul.getSummary().length;
+		int[] summary = new int[4 * n];
+		for (int q = 0; q < 4; q++)
+			System.arraycopy(quadrants[q].getSummary(), 0, summary, q * n, n);
+		return summary;
+	}
+
+	public void setSummary(int[] summary) {
+		Metric[] quadrants = { ul, ur, ll, lr };
+		int n = summary.length / 4;
+		for (int q = 0; q < 4; q++) {
+			int[] part = new int[n];
+			System.arraycopy(summary, q * n, part, 0, n);
+			quadrants[q].setSummary(part);
+		}
+	}
 }
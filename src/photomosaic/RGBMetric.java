@@ -37,12 +37,12 @@
 
 package photomosaic;
 
-import java.awt.Color;
-
 class RGBMetric implements Metric {
 	private int averageRed;
 	private int averageGreen;
 	private int averageBlue;
+	/** the least and greatest R, G, and B values summarized (unknown: 0 to 255) */
+	private int[] ranges = { 0, 255, 0, 255, 0, 255 };
 
 	public RGBMetric(int red, int green, int blue) {
 		this.averageRed = red;
@@ -56,7 +56,9 @@ class RGBMetric implements Metric {
 
 	@Override
 	public Metric copy() {
-		return new RGBMetric(averageRed, averageGreen, averageBlue);
+		RGBMetric m = new RGBMetric(averageRed, averageGreen, averageBlue);
+		m.ranges = ranges.clone();
+		return m;
 	}
 
 	@Override
@@ -69,28 +71,79 @@ class RGBMetric implements Metric {
 		int redSum = 0;
 		int greenSum = 0;
 		int blueSum = 0;
-		for (int x = columnStart; x < columnStart + width; x++) {
+		int[] ranges = { 255, 0, 255, 0, 255, 0 };
+		int pictureWidth = p.getWidth();
+		byte[] gray = p.getGrayPixels();
+		if (gray != null) {
+			// R, G, and B are the same: sum one of them
+			for (int y = rowStart; y < rowStart + height; y++)
+				for (int x = 0, i = y * pictureWidth + columnStart; x < width; x++, i++) {
+					int v = gray[i] & 255;
+					redSum += v;
+					ranges[0] = Math.min(ranges[0], v);
+					ranges[1] = Math.max(ranges[1], v);
+				}
+			greenSum = blueSum = redSum;
+			ranges[2] = ranges[4] = ranges[0];
+			ranges[3] = ranges[5] = ranges[1];
+		} else {
+			int[] pixels = p.getPixels();
 			for (int y = rowStart; y < rowStart + height; y++) {
-				try {
-				Color rgb = p.getColor(x, y); 
-
-				redSum += rgb.getRed();
-				greenSum += rgb.getGreen();
-				blueSum += rgb.getBlue();}
-				catch (Exception e) {
-					e.printStackTrace();
-					System.out.println("rowstart:" + rowStart);
-					System.out.println("colstart:" + columnStart);
-					System.out.println(width + ", " + height + "(w, h");
-
+				int i = y * pictureWidth + columnStart;
+				for (int x = 0; x < width; x++, i++) {
+					int rgb = pixels[i];
+					int r = (rgb >> 16) & 255, g = (rgb >> 8) & 255, b = rgb & 255;
+					redSum += r;
+					greenSum += g;
+					blueSum += b;
+					ranges[0] = Math.min(ranges[0], r);
+					ranges[1] = Math.max(ranges[1], r);
+					ranges[2] = Math.min(ranges[2], g);
+					ranges[3] = Math.max(ranges[3], g);
+					ranges[4] = Math.min(ranges[4], b);
+					ranges[5] = Math.max(ranges[5], b);
 				}
 			}
 		}
+		this.ranges = ranges;
 		averageRed = redSum / (width * height);
 		averageGreen = greenSum / (width * height);
 		averageBlue = blueSum / (width * height);
 	}
 
+	@Override
+	public boolean makeSummary(Metric m, LookupFilter f) {
+		// An average of values shifted by a fixed amount (none clamped) is
+		// shifted by it, as are the least and greatest values
+		RGBMetric base = (RGBMetric) m;
+		if (!f.shiftsWithin(base.ranges))
+			return false;
+		averageRed = base.averageRed + f.getDelta(Filter.RED);
+		averageGreen = base.averageGreen + f.getDelta(Filter.GREEN);
+		averageBlue = base.averageBlue + f.getDelta(Filter.BLUE);
+		ranges = shift(base.ranges, f);
+		return true;
+	}
+
+	/**
+	 * Returns the ranges (the least and greatest R, G, and B values) shifted
+	 * by the amounts <code>f</code> adds to each color.
+	 */
+	static int[] shift(int[] ranges, LookupFilter f) {
+		int[] shifted = new int[6];
+		for (int c = Filter.RED; c <= Filter.BLUE; c++) {
+			shifted[2 * c] = ranges[2 * c] + f.getDelta(c);
+			shifted[2 * c + 1] = ranges[2 * c + 1] + f.getDelta(c);
+		}
+		return shifted;
+	}
+
+	@Override
+	public void makeSummary(Metric m, Orientation o) {
+		// The averages do not depend on where the pixels are
+		setSummary(m.getSummary());
+	}
+
 	@Override
 	/**
 	 * The distance between two such metrics is just the sum of the absolute
@@ -102,4 +155,20 @@ class RGBMetric implements Metric {
 		int b = averageBlue - ((RGBMetric) m).averageBlue;
 		return Math.sqrt(r*r + g*g + b*b);
 	}
+
+	@Override
+	public int[] getSummary() {
+		return new int[] { averageRed, averageGreen, averageBlue, ranges[0], ranges[1], ranges[2], ranges[3],
+				ranges[4], ranges[5] };
+	}
+
+	@Override
+	public void setSummary(int[] summary) {
+		averageRed = summary[0];
+		averageGreen = summary[1];
+		averageBlue = summary[2];
+		// (a summary saved without the ranges leaves them unknown)
+		ranges = summary.length >= 9 ? new int[] { summary[3], summary[4], summary[5], summary[6], summary[7],
+				summary[8] } : new int[] { 0, 255, 0, 255, 0, 255 };
+	}
 }
@@ -0,0 +1,165 @@
+package photomosaic;
+
+import java.util.Arrays;
+
+/**
+ * The <code>Resampler</code> class resizes pictures stored as packed ARGB
+ * values (<code>0xAARRGGBB</code>, row by row), by area averaging: each
+ * resized pixel is the average of the original pixels it covers, each
+ * weighted by how much of it is covered. This is exact for any reduction
+ * ratio (every original pixel contributes once, with the right weight) so,
+ * unlike interpolating resizers, it needs no series of halving steps to
+ * avoid aliasing when making thumbnails of large pictures. When the sizes
+ * divide evenly it uses a plain box average. Enlarging works the same way,
+ * blending the (at most two) original pixels each resized pixel overlaps.
+ *
+ * The resize is separable: rows are first resized horizontally, then the
+ * columns of the result vertically, in integer arithmetic, in parallel
+ * strips for large pictures. The results are opaque.
+ */
+final class Resampler {
+	private Resampler() {
+	}
+
+	/**
+	 * Returns the pixels of a picture resized to the specified size.
+	 *
+	 * @param src
+	 *            specifies the packed ARGB values of the picture
+	 * @param width
+	 *            specifies the width of the picture (in pixels)
+	 * @param height
+	 *            specifies the height of the picture (in pixels)
+	 * @param newWidth
+	 *            specifies the width to resize it to (in pixels)
+	 * @param newHeight
+	 *            specifies the height to resize it to (in pixels)
+	 *
+	 * @return the packed ARGB values of the resized picture
+	 *
+	 * @throws IllegalArgumentException
+	 *             if any size is not positive
+	 */
+	static int[] resize(int[] src, int width, int height, int newWidth, int newHeight)
+			throws IllegalArgumentException {
+		if (width <= 0 || height <= 0 || newWidth <= 0 || newHeight <= 0)
+			throw new IllegalArgumentException("Resampler.resize: sizes illegal: " + width + "x" + height + " to "
+					+ newWidth + "x" + newHeight);
+		if (width % newWidth == 0 && height % newHeight == 0)
+			return boxAverage(src, width, height, width / newWidth, height / newHeight);
+		return areaAverage(src, width, height, newWidth, newHeight);
+	}
+
+	/**
+	 * Returns the pixels of a picture reduced by whole factors: each resized
+	 * pixel is the average of a <code>factorX</code> by <code>factorY</code>
+	 * block.
+	 */
+	private static int[] boxAverage(int[] src, int width, int height, int factorX, int factorY) {
+		int newWidth = width / factorX, newHeight = height / factorY;
+		int[] dst = new int[newWidth * newHeight];
+		int area = factorX * factorY;
+		ParallelRows.forEach(newHeight, width * factorY, (rowStart, rowEnd) -> {
+			int[] red = new int[newWidth], green = new int[newWidth], blue = new int[newWidth];
+			for (int y = rowStart; y < rowEnd; y++) {
+				Arrays.fill(red, 0);
+				Arrays.fill(green, 0);
+				Arrays.fill(blue, 0);
+				for (int sy = y * factorY; sy < (y + 1) * factorY; sy++)
+					for (int x = 0, i = sy * width; x < newWidth; x++)
+						for (int k = 0; k < factorX; k++, i++) {
+							int rgb = src[i];
+							red[x] += (rgb >> 16) & 255;
+							green[x] += (rgb >> 8) & 255;
+							blue[x] += rgb & 255;
+						}
+				for (int x = 0; x < newWidth; x++)
+					dst[y * newWidth + x] = Picture.pack((red[x] + area / 2) / area, (green[x] + area / 2) / area,
+							(blue[x] + area / 2) / area);
+			}
+		});
+		return dst;
+	}
+
+	/**
+	 * Returns the pixels of a picture resized by area averaging, for any
+	 * ratio of sizes.
+	 */
+	private static int[] areaAverage(int[] src, int width, int height, int newWidth, int newHeight) {
+		// Horizontal pass: each channel of each resized pixel, times 256 (so
+		// no precision is lost before the vertical pass)
+		final Span xs = new Span(width, newWidth), ys = new Span(height, newHeight);
+		final int[] red = new int[newWidth * height], green = new int[newWidth * height],
+				blue = new int[newWidth * height];
+		ParallelRows.forEach(height, width, (rowStart, rowEnd) -> {
+			for (int y = rowStart; y < rowEnd; y++) {
+				int row = y * width;
+				for (int x = 0, i = y * newWidth; x < newWidth; x++, i++) {
+					long r = 0, g = 0, b = 0;
+					for (int k = xs.start[x], w = xs.offset[x]; k < xs.end[x]; k++, w++) {
+						int rgb = src[row + k];
+						int weight = xs.weight[w];
+						r += ((rgb >> 16) & 255) * weight;
+						g += ((rgb >> 8) & 255) * weight;
+						b += (rgb & 255) * weight;
+					}
+					red[i] = (int) ((r * 256 + width / 2) / width);
+					green[i] = (int) ((g * 256 + width / 2) / width);
+					blue[i] = (int) ((b * 256 + width / 2) / width);
+				}
+			}
+		});
+
+		// Vertical pass over the columns of the horizontal pass
+		final int[] dst = new int[newWidth * newHeight];
+		final long divisor = 256L * height;
+		ParallelRows.forEach(newHeight, newWidth * (height / newHeight + 2), (rowStart, rowEnd) -> {
+			long[] r = new long[newWidth], g = new long[newWidth], b = new long[newWidth];
+			for (int y = rowStart; y < rowEnd; y++) {
+				Arrays.fill(r, 0);
+				Arrays.fill(g, 0);
+				Arrays.fill(b, 0);
+				for (int k = ys.start[y], w = ys.offset[y]; k < ys.end[y]; k++, w++) {
+					int weight = ys.weight[w];
+					for (int x = 0, i = k * newWidth; x < newWidth; x++, i++) {
+						r[x] += (long) red[i] * weight;
+						g[x] += (long) green[i] * weight;
+						b[x] += (long) blue[i] * weight;
+					}
+				}
+				for (int x = 0; x < newWidth; x++)
+					dst[y * newWidth + x] = Picture.pack((int) ((r[x] + divisor / 2) / divisor),
+							(int) ((g[x] + divisor / 2) / divisor), (int) ((b[x] + divisor / 2) / divisor));
+			}
+		});
+		return dst;
+	}
+
+	// Span records, for each resized index i, the original indexes it covers
+	// (start[i] to end[i]-1) and how much of each it covers (weight[offset[i]]
+	// onward). Measured in units where an original pixel is newLength long
+	// and a resized one is length long, the overlaps are whole numbers and
+	// the overlaps of each resized pixel sum to length.
+	private static class Span {
+		Span(int length, int newLength) {
+			start = new int[newLength];
+			end = new int[newLength];
+			offset = new int[newLength];
+			int[] weights = new int[length + newLength];
+			int n = 0;
+			for (int i = 0; i < newLength; i++) {
+				long from = (long) i * length, to = (long) (i + 1) * length;
+				int first = (int) (from / newLength);
+				int last = (int) ((to - 1) / newLength);
+				start[i] = first;
+				offset[i] = n;
+				for (int k = first; k <= last; k++)
+					weights[n++] = (int) (Math.min(to, (long) (k + 1) * newLength) - Math.max(from, (long) k * newLength));
+				end[i] = last + 1;
+			}
+			weight = weights;
+		}
+
+		final int[] start, end, offset, weight;
+	}
+}
@@ -0,0 +1,212 @@
+package photomosaic;
+
+import java.util.Arrays;
+
+/**
+ * The <code>SeparableFilter</code> class blurs a picture with a separable
+ * kernel (the same 1-D kernel applied across the rows and then down the
+ * columns), optionally sharpening it instead by adding back a multiple of the
+ * difference between the picture and its blur (unsharp masking). Pixels past
+ * an edge are taken to be copies of the nearest edge pixel.
+ *
+ * Each strip of rows is blurred across its rows (plus the rows within the
+ * kernel's radius above and below it) and then down its columns, so the cost
+ * per pixel grows with the kernel's width, not its area; a kernel of equal
+ * weights (a box) is applied with sliding-window sums, whose cost per pixel
+ * does not depend on its width at all. All sums are exact integers, divided
+ * (and rounded) once per pixel at the end.
+ */
+class SeparableFilter implements BulkFilter {
+	private final int[] kernel;
+	private final int radius;
+	private final long divisor;
+	private final boolean box;
+	private final int amount;
+
+	/**
+	 * Constructs a filter that blurs (when <code>amount</code> is 0) or
+	 * sharpens with the specified kernel.
+	 *
+	 * @param kernel
+	 *            specifies the (non-negative) weights of the 1-D kernel; it
+	 *            must have an odd length, and is centered on its middle
+	 *            element
+	 * @param amount
+	 *            specifies how much to sharpen, as a percent of the
+	 *            difference between the picture and its blur to add to the
+	 *            picture (0 blurs instead)
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the kernel has an even length or a negative weight, or
+	 *             its weights sum to 0 or more than 4096
+	 */
+	public SeparableFilter(int[] kernel, int amount) throws IllegalArgumentException {
+		int sum = 0;
+		boolean box = true;
+		for (int w : kernel) {
+			if (w < 0)
+				throw new IllegalArgumentException("SeparableFilter: weight(" + w + ") illegal");
+			sum += w;
+			box &= w == kernel[0];
+		}
+		if (kernel.length % 2 == 0 || sum <= 0 || sum > 4096)
+			throw new IllegalArgumentException("SeparableFilter: kernel illegal: length " + kernel.length + " sum " + sum);
+		this.kernel = kernel.clone();
+		this.radius = kernel.length / 2;
+		this.divisor = (long) sum * sum;
+		this.box = box;
+		this.amount = amount;
+	}
+
+	/**
+	 * Returns a kernel of <code>2*radius+1</code> equal weights.
+	 */
+	static int[] boxKernel(int radius) {
+		int[] kernel = new int[2 * radius + 1];
+		Arrays.fill(kernel, 1);
+		return kernel;
+	}
+
+	/**
+	 * Returns a kernel of the Gaussian with standard deviation
+	 * <code>sigma</code>, out to 3 standard deviations, with integer weights
+	 * summing to about 256.
+	 */
+	static int[] gaussianKernel(double sigma) {
+		int radius = Math.max(1, (int) Math.ceil(3 * sigma));
+		double[] g = new double[2 * radius + 1];
+		double sum = 0;
+		for (int i = -radius; i <= radius; i++)
+			sum += g[i + radius] = Math.exp(-i * i / (2 * sigma * sigma));
+		int[] kernel = new int[g.length];
+		for (int i = 0; i < g.length; i++)
+			kernel[i] = (int) Math.round(256 * g[i] / sum);
+		return kernel;
+	}
+
+	public int getFiltered(int colorToFilter, Picture p, int x, int y) throws IllegalArgumentException {
+		if (colorToFilter < RED || colorToFilter > BLUE)
+			throw new IllegalArgumentException("SeparableFilter: colorToFilter(" + colorToFilter + ") illegal");
+		if (x < 0 || x >= p.getWidth() || y < 0 || y >= p.getHeight())
+			throw new IllegalArgumentException("SeparableFilter: (" + x + "," + y + ") not in picture");
+		int[] pixels = p.getPixels();
+		int width = p.getWidth(), height = p.getHeight();
+		int shift = 16 - 8 * colorToFilter;
+		long sum = 0;
+		for (int j = -radius; j <= radius; j++) {
+			int row = clamp(y + j, height) * width;
+			for (int i = -radius; i <= radius; i++)
+				sum += (long) kernel[j + radius] * kernel[i + radius] * ((pixels[row + clamp(x + i, width)] >> shift) & 255);
+		}
+		return combine((pixels[y * width + x] >> shift) & 255, sum);
+	}
+
+	public void filterRows(int[] src, int[] dst, int width, int height, int rowStart, int rowEnd) {
+		// Across the rows: the rows needed by this strip, from first to last
+		int first = Math.max(0, rowStart - radius), last = Math.min(height, rowEnd + radius);
+		int n = (last - first) * width;
+		int[] red = new int[n], green = new int[n], blue = new int[n];
+		for (int y = first; y < last; y++)
+			if (box)
+				boxRow(src, y * width, width, red, green, blue, (y - first) * width);
+			else
+				kernelRow(src, y * width, width, red, green, blue, (y - first) * width);
+
+		// Down the columns (a box's row sums are unweighted, so its weight is
+		// applied, squared, once at the end)
+		long scale = box ? (long) kernel[0] * kernel[0] : 1;
+		long[] r = new long[width], g = new long[width], b = new long[width];
+		for (int y = rowStart; y < rowEnd; y++) {
+			if (box && y > rowStart) {
+				// Slide the window down a row
+				int in = (clamp(y + radius, height) - first) * width;
+				int out = (clamp(y - radius - 1, height) - first) * width;
+				for (int x = 0; x < width; x++) {
+					r[x] += red[in + x] - red[out + x];
+					g[x] += green[in + x] - green[out + x];
+					b[x] += blue[in + x] - blue[out + x];
+				}
+			} else {
+				Arrays.fill(r, 0);
+				Arrays.fill(g, 0);
+				Arrays.fill(b, 0);
+				for (int j = -radius; j <= radius; j++) {
+					int row = (clamp(y + j, height) - first) * width;
+					long w = box ? 1 : kernel[j + radius];
+					for (int x = 0; x < width; x++) {
+						r[x] += w * red[row + x];
+						g[x] += w * green[row + x];
+						b[x] += w * blue[row + x];
+					}
+				}
+			}
+			for (int x = 0, i = y * width; x < width; x++, i++) {
+				int rgb = src[i];
+				dst[i] = Picture.pack(combine((rgb >> 16) & 255, scale * r[x]), combine((rgb >> 8) & 255, scale * g[x]),
+						combine(rgb & 255, scale * b[x]));
+			}
+		}
+	}
+
+	/**
+	 * Sums the kernel across one row, storing the sums for each color.
+	 */
+	private void kernelRow(int[] src, int row, int width, int[] red, int[] green, int[] blue, int to) {
+		for (int x = 0; x < width; x++) {
+			int r = 0, g = 0, b = 0;
+			for (int i = -radius; i <= radius; i++) {
+				int rgb = src[row + clamp(x + i, width)];
+				int w = kernel[i + radius];
+				r += w * ((rgb >> 16) & 255);
+				g += w * ((rgb >> 8) & 255);
+				b += w * (rgb & 255);
+			}
+			red[to + x] = r;
+			green[to + x] = g;
+			blue[to + x] = b;
+		}
+	}
+
+	/**
+	 * Sums a box kernel across one row with a sliding window, storing the sums
+	 * for each color (unweighted: the pixel values in the window are just
+	 * added up).
+	 */
+	private void boxRow(int[] src, int row, int width, int[] red, int[] green, int[] blue, int to) {
+		int r = 0, g = 0, b = 0;
+		for (int i = -radius; i <= radius; i++) {
+			int rgb = src[row + clamp(i, width)];
+			r += (rgb >> 16) & 255;
+			g += (rgb >> 8) & 255;
+			b += rgb & 255;
+		}
+		for (int x = 0; x < width; x++) {
+			red[to + x] = r;
+			green[to + x] = g;
+			blue[to + x] = b;
+			int in = src[row + clamp(x + radius + 1, width)], out = src[row + clamp(x - radius, width)];
+			r += ((in >> 16) & 255) - ((out >> 16) & 255);
+			g += ((in >> 8) & 255) - ((out >> 8) & 255);
+			b += (in & 255) - (out & 255);
+		}
+	}
+
+	/**
+	 * Returns the filtered value of a color whose value is
+	 * <code>original</code> and whose kernel sum is <code>sum</code>.
+	 */
+	private int combine(int original, long sum) {
+		int blurred = (int) ((sum + divisor / 2) / divisor);
+		if (amount == 0)
+			return blurred;
+		return Math.max(0, Math.min(255, original + (original - blurred) * amount / 100));
+	}
+
+	private static int clamp(int i, int length) {
+		return i < 0 ? 0 : i >= length ? length - 1 : i;
+	}
+
+	public boolean isPointFilter() {
+		return false;
+	}
+}
@@ -0,0 +1,79 @@
+package photomosaic;
+
+/**
+ * The <code>ShiftedTile</code> class is a picture in a database made by
+ * filtering another picture in it (see <code>Model.shift</code>), kept as
+ * just a reference to that picture and the filter: its pixels are made only
+ * when it is needed (placed in a rendering or displayed), and kept only in
+ * the cache of scaled pictures (see
+ * <code>PhotomosaicInfo.getScaledPicture</code>), so shifting a database
+ * takes up almost no memory. Its pictures cannot be changed, since the
+ * shifted pictures would change with them.
+ *
+ * The summary of a picture shifted by a filter that adds a fixed amount to
+ * each color (a <code>DeltaFilter</code>) is made from the summary of the
+ * picture it was made from, without making its pixels at all (see
+ * <code>Metric.makeSummary(Metric, LookupFilter)</code>).
+ */
+class ShiftedTile implements DerivedTile {
+	private final PhotomosaicInfo base;
+	private final Filter filter;
+	private final String name;
+
+	/**
+	 * Constructs the picture made by filtering the picture of
+	 * <code>base</code> with <code>filter</code>, named <code>name</code>.
+	 */
+	public ShiftedTile(PhotomosaicInfo base, Filter filter, String name) {
+		this.base = base;
+		this.filter = filter;
+		this.name = name;
+	}
+
+	public PhotomosaicInfo getBase() {
+		return base;
+	}
+
+	public int getWidth() {
+		return base.getWidth();
+	}
+
+	public int getHeight() {
+		return base.getHeight();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isGray() {
+		// (filtering a gray picture makes it gray only if the filter does)
+		return filter == null ? base.isGray() : Picture.producesGray(BulkFilterAdapter.of(filter));
+	}
+
+	public Picture load() {
+		return base.getPicture().copy(name, filter);
+	}
+
+	/**
+	 * Returns a copy of <code>metric</code> with the summary of this picture:
+	 * made from the summary of the picture this one is made from, if that was
+	 * made by the same kind of metric and the metric can follow the filter
+	 * (see <code>Metric.makeSummary(Metric, LookupFilter)</code>); otherwise
+	 * made from this picture's pixels (which are then discarded).
+	 *
+	 * @param metric
+	 *            specifies the metric to summarize with
+	 *
+	 * @return the summary of this picture
+	 */
+	public Metric summarize(Metric metric) {
+		Metric summary = metric.copy();
+		BulkFilter f = filter == null ? null : BulkFilterAdapter.of(filter);
+		if (!(f instanceof LookupFilter)
+				|| !MetricFactory.getName(base.getMetric()).equals(MetricFactory.getName(metric))
+				|| !summary.makeSummary(base.getMetric(), (LookupFilter) f))
+			summary.makeSummary(load());
+		return summary;
+	}
+}
@@ -0,0 +1,176 @@
+package photomosaic;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The <code>StreamedPicture</code> class is a picture to render that is too
+ * large to decode all at once (e.g. a panorama of hundreds of megapixels).
+ * Rendering needs only a summary of each of its cells, so it is decoded one
+ * horizontal band at a time (with <code>ImageReadParam.setSourceRegion</code>)
+ * and each band is filtered, summarized, and discarded before the next is
+ * decoded. Bands are whole rows of cells, about <code>BAND_PIXELS</code>
+ * pixels each: the memory used depends on the band size, not on the size of
+ * the picture. Since readers for most formats must decode the rows above a
+ * region to reach it, larger bands mean fewer passes over the file.
+ *
+ * Each band is decoded with <code>MARGIN</code> extra rows above and below
+ * it (where the picture has them) so that filters that look at neighbouring
+ * pixels (e.g. blurs) give the same result at the edges of a band as they
+ * would for the whole picture.
+ */
+class StreamedPicture {
+	private final String fileName;
+	private final int width, height;
+	private final Filter filter;
+
+	/**
+	 * Constructs a streamed picture from the .gif/.jpeg (or .jpg)/.png file
+	 * <code>fileName</code>, reading only its size.
+	 *
+	 * @param fileName
+	 *            specifies the file name from which to read the picture
+	 * @param filter
+	 *            specifies the filter applied to each band (or
+	 *            <code>null</code>)
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the file cannot be found (or it doesn't store a picture in
+	 *             it)
+	 */
+	public StreamedPicture(String fileName, Filter filter) throws IllegalArgumentException {
+		Dimension size;
+		try {
+			size = ImageDecoder.size(new File(fileName));
+		} catch (IOException e) {
+			size = null;
+		}
+		if (size == null)
+			throw new IllegalArgumentException("StreamedPicture: picture could not be read from file: " + fileName);
+		this.fileName = fileName;
+		this.width = size.width;
+		this.height = size.height;
+		this.filter = filter;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the number of rows of cells of height <code>cellHeight</code>
+	 * in each band (at least one).
+	 */
+	public int getBandCells(int cellHeight) {
+		return (int) Math.max(1, BAND_PIXELS / ((long) width * cellHeight));
+	}
+
+	/**
+	 * Returns the rows <code>y</code> to <code>y + bandHeight - 1</code> of
+	 * the picture (all its columns), filtered.
+	 *
+	 * @param y
+	 *            specifies the first row of the band
+	 * @param bandHeight
+	 *            specifies the number of rows in the band
+	 *
+	 * @return the band of the picture
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the rows are not in the picture, or cannot be decoded
+	 */
+	public Picture readBand(int y, int bandHeight) throws IllegalArgumentException {
+		if (y < 0 || bandHeight <= 0 || y + bandHeight > height)
+			throw new IllegalArgumentException(
+					"StreamedPicture.readBand y/bandHeight illegal: " + y + "/" + bandHeight + "(" + height + ")");
+		int top = Math.max(0, y - MARGIN), bottom = Math.min(height, y + bandHeight + MARGIN);
+		BufferedImage image;
+		try {
+			image = ImageDecoder.readRegion(new File(fileName), new Rectangle(0, top, width, bottom - top));
+		} catch (IOException e) {
+			image = null;
+		}
+		if (image == null)
+			throw new IllegalArgumentException("StreamedPicture.readBand: rows could not be decoded: " + fileName);
+		Picture band = new Picture(fileName, image, Picture.NATURAL_SIZE, Picture.NATURAL_SIZE);
+		band.filter(filter);
+		if (top == y && bottom == y + bandHeight)
+			return band;
+		return band.extract(fileName, 0, y - top, width, bandHeight);
+	}
+
+	/**
+	 * Returns the picture scaled to the specified size, decoded subsampled (so
+	 * it is never decoded at full size) and filtered.
+	 *
+	 * @param newWidth
+	 *            specifies the width to scale to (in pixels)
+	 * @param newHeight
+	 *            specifies the height to scale to (in pixels)
+	 *
+	 * @return the scaled picture
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the picture cannot be decoded
+	 */
+	public Picture scale(int newWidth, int newHeight) throws IllegalArgumentException {
+		BufferedImage image;
+		try {
+			image = ImageDecoder.read(new File(fileName), newWidth, newHeight);
+		} catch (IOException e) {
+			image = null;
+		}
+		if (image == null)
+			throw new IllegalArgumentException("StreamedPicture.scale: picture could not be decoded: " + fileName);
+		Picture scaled = new Picture(fileName, image, newWidth, newHeight);
+		scaled.filter(filter);
+		return scaled;
+	}
+
+	/**
+	 * Returns a preview of the picture: scaled (see <code>scale</code>) to fit
+	 * within the specified size.
+	 *
+	 * @param maxWidth
+	 *            specifies the most width of the preview (in pixels)
+	 * @param maxHeight
+	 *            specifies the most height of the preview (in pixels)
+	 *
+	 * @return the preview
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the picture cannot be decoded
+	 */
+	public Picture preview(int maxWidth, int maxHeight) throws IllegalArgumentException {
+		double scale = Math.min(1, Math.min((double) maxWidth / width, (double) maxHeight / height));
+		return scale(Math.max(1, (int) (width * scale)), Math.max(1, (int) (height * scale)));
+	}
+
+	/**
+	 * Returns whether a picture of the specified size is large enough to be
+	 * rendered streamed, rather than decoded all at once.
+	 */
+	public static boolean isLarge(int width, int height) {
+		return (long) width * height > LARGE_PIXELS;
+	}
+
+	/** the number of pixels (about) in each band */
+	static final long BAND_PIXELS = 1 << 24;
+
+	/** the number of extra rows decoded above and below each band */
+	static final int MARGIN = 16;
+
+	/** pictures with more pixels than this are rendered streamed */
+	static final long LARGE_PIXELS = 1 << 25;
+}
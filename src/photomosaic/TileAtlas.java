@@ -0,0 +1,191 @@
+package photomosaic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The <code>TileAtlas</code> class keeps the pixels of all the pictures in a
+ * database (which are all the same size) in one array: the pixels of the
+ * picture at index <code>n</code> take up <code>width * height</code>
+ * entries from <code>n * width * height</code>. The array has ARGB ints, or
+ * gray bytes if all the pictures are gray. Each picture's pixels are viewed
+ * through a <code>PixelSource</code> (see <code>getTile</code>), which copies
+ * them out in one sequential copy when the picture is needed.
+ *
+ * Compared to one <code>Picture</code> (and <code>BufferedImage</code>) per
+ * picture scattered over the heap, going through the whole database (to
+ * summarize, save, or display it) reads memory sequentially, and the garbage
+ * collector sees one large object instead of tens of thousands of small ones.
+ * An atlas cannot have more than <code>MAX_PIXELS</code> pixels.
+ *
+ * A database that grows (loading more pictures into it) is kept in a chain
+ * of atlases, one for each batch of pictures added (see <code>pack</code>):
+ * adding pictures copies only their pixels, never those already in an
+ * atlas. An atlas is freed once none of its pictures are in the database.
+ */
+class TileAtlas {
+	private final int width, height, count;
+	private final int[] pixels;
+	private final byte[] gray;
+
+	/**
+	 * Constructs an atlas for <code>count</code> pictures of the specified
+	 * size, all black; their pixels are filled in through
+	 * <code>getPixels</code> or <code>getGrayPixels</code>.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the pictures have more than <code>MAX_PIXELS</code>
+	 *             pixels in all
+	 */
+	public TileAtlas(int width, int height, int count, boolean gray) throws IllegalArgumentException {
+		if (width < 0 || height < 0 || count < 0 || (long) width * height * count > MAX_PIXELS)
+			throw new IllegalArgumentException(
+					"TileAtlas: illegal width/height/count: " + width + "/" + height + "/" + count);
+		this.width = width;
+		this.height = height;
+		this.count = count;
+		this.pixels = gray ? null : new int[width * height * count];
+		this.gray = gray ? new byte[width * height * count] : null;
+	}
+
+	/**
+	 * Moves the pixels of the pictures in <code>infos</code> that are kept in
+	 * their own <code>Picture</code> into new atlases (as few as hold them),
+	 * in the order of <code>infos</code>, and keeps them there from now on.
+	 * Pictures already in an atlas, or kept elsewhere (compactly, in a
+	 * database file, or made from other pictures), are left where they are,
+	 * so adding a few pictures to a large database copies only theirs.
+	 *
+	 * @param infos
+	 *            specifies the database of pictures (all the same size)
+	 *
+	 * @return the new atlases (none if there are no such pictures)
+	 */
+	public static List<TileAtlas> pack(List<PhotomosaicInfo> infos) {
+		ArrayList<PhotomosaicInfo> unpacked = new ArrayList<PhotomosaicInfo>();
+		for (PhotomosaicInfo info : infos)
+			if (info.getPixelSource() == null)
+				unpacked.add(info);
+		ArrayList<TileAtlas> atlases = new ArrayList<TileAtlas>();
+		if (unpacked.isEmpty())
+			return atlases;
+		int width = unpacked.get(0).getWidth(), height = unpacked.get(0).getHeight();
+		int size = width * height;
+		int perAtlas = (int) Math.min(unpacked.size(), MAX_PIXELS / Math.max(1, size));
+		for (int from = 0; from < unpacked.size(); from += perAtlas)
+			atlases.add(pack(unpacked.subList(from, Math.min(unpacked.size(), from + perAtlas)), width, height));
+		return atlases;
+	}
+
+	// Returns a new atlas with the pixels of the pictures in infos, which are
+	// then kept there
+	private static TileAtlas pack(List<PhotomosaicInfo> infos, int width, int height) {
+		boolean allGray = true;
+		for (PhotomosaicInfo info : infos)
+			allGray &= info.isGray();
+		TileAtlas atlas = new TileAtlas(width, height, infos.size(), allGray);
+		int size = width * height;
+		int[] region = allGray ? null : new int[size];
+		for (int n = 0; n < infos.size(); n++) {
+			PhotomosaicInfo info = infos.get(n);
+			Picture p = info.readPicture();
+			if (allGray)
+				System.arraycopy(p.getGrayPixels(), 0, atlas.gray, n * size, size);
+			else
+				// (getRegion expands gray pictures without changing them)
+				System.arraycopy(p.getRegion(0, 0, width, height, region), 0, atlas.pixels, n * size, size);
+			info.setPixelSource(atlas.getTile(n, p.getFileName()));
+		}
+		return atlas;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the number of pictures in the atlas.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	public boolean isGray() {
+		return gray != null;
+	}
+
+	/**
+	 * Returns the array of ARGB pixels of the atlas (<code>null</code> if it
+	 * is gray).
+	 */
+	int[] getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * Returns the array of gray pixels of the atlas (<code>null</code> if it
+	 * is not gray).
+	 */
+	byte[] getGrayPixels() {
+		return gray;
+	}
+
+	/**
+	 * Returns a view of the pixels of the picture at <code>index</code>, named
+	 * <code>name</code>.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>index</code> is not in the atlas
+	 */
+	public PixelSource getTile(int index, String name) throws IllegalArgumentException {
+		if (index < 0 || index >= count)
+			throw new IllegalArgumentException("TileAtlas.getTile index illegal: " + index + "(" + count + ")");
+		return new Tile(index, name);
+	}
+
+	/** The pixels of one picture in the atlas */
+	class Tile implements PixelSource {
+		private final int index;
+		private final String name;
+
+		Tile(int index, String name) {
+			this.index = index;
+			this.name = name;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isGray() {
+			return gray != null;
+		}
+
+		public Picture load() {
+			int size = width * height;
+			if (gray != null) {
+				byte[] copy = new byte[size];
+				System.arraycopy(gray, index * size, copy, 0, size);
+				return Picture.wrapGray(name, width, height, copy);
+			}
+			int[] copy = new int[size];
+			System.arraycopy(pixels, index * size, copy, 0, size);
+			return Picture.wrap(name, width, height, copy);
+		}
+	}
+
+	/** the most pixels an atlas can have (in one array) */
+	static final long MAX_PIXELS = Integer.MAX_VALUE - 8;
+}
@@ -68,17 +68,27 @@ public class View // extends JFrame
 		System.out.println("  ? - Comparators, Filters, and Metrics");
 		System.out.println("  r - resetPictureDatabase");
 		System.out.println("  l - loadMoreInPictureDatabase");
+		System.out.println("  z - loadArchiveInPictureDatabase");
+		System.out.println("  y - syncPictureDatabase");
 		System.out.println("  d - displayPictureDatabase");
+		System.out.println("  w - savePictureDatabase");
+		System.out.println("  o - loadPictureDatabase");
+		System.out.println("  c - setPictureCacheSize");
+		System.out.println("  k - setCompactTiles");
 		System.out.println("  s - shift");
+		System.out.println("  v - addOrientations");
 		System.out.println("  < - resortPictureDatabase");
 		System.out.println("  f - setFilter");
+		System.out.println("  t - setUseThumbnails");
+		System.out.println("  u - setDuplicateDistance");
+		System.out.println("  p - setCrops");
 		System.out.println("  m - setMetric");
 		System.out.println("  L - loadPictureToRender");
 		System.out.println("  S - scalePictureToRender");
 		System.out.println("  R - renderPicture");
 		System.out.println("  q - quit");
 
-		return Prompt.forChar("\nEnter Command", "h?rlds<fmLSRq");
+		return Prompt.forChar("\nEnter Command", "h?rlzydwocksv<ftupmLSRq");
 	}
 
 	////////////////
@@ -101,10 +111,20 @@ public class View // extends JFrame
 					System.out.println("? - Gives you the list of Comparators, Filters, and Metrics that can be used for sorting, filtering, and comparing the database of pictures.");
 					System.out.println("r - Resets the mini picture database.");
 					System.out.println("l - Loads more mini pictures into the database through a file selector popup window. The width/height inputted must be equal to the width/heights of the pictures already in the database.");
+					System.out.println("z - Loads more mini pictures into the database from all the pictures in a .zip (or .jar) archive, selected through a file selector popup window, without extracting them. The width/height rules are the same as for l.");
+					System.out.println("y - Keeps the mini picture database in sync with a folder, selected through a folder selector popup window the first time: loads only the pictures added to (or changed in) the folder since the previous sync, and removes those deleted from it. r stops syncing with the folder.");
 					System.out.println("d - Displays the mini picture database in a new window.");
+					System.out.println("w - Saves the mini picture database (pictures, summaries, and the names of the filter and metric used) in a file, through a save as popup window.");
+					System.out.println("o - Replaces the mini picture database by one saved by w, through a file selector popup window; much faster than loading the pictures again. Mapping it instead reads each picture from the file only when it is needed, and shares the file with other programs mapping it; leaving it on disk also reads each picture only when it is needed, keeping in memory only what matching needs, so the database can be larger than memory.");
+					System.out.println("c - Sets the size (in MB) of the cache of pictures read from a database (mapped or on disk) and scaled for rendering.");
+					System.out.println("k - Sets whether the pixels of the pictures in the database (and of all subsequent ones) are kept packed, 3 bytes per pixel instead of a whole picture, optionally also compressed (losslessly); each picture is rebuilt when it is placed or displayed. The database then takes up much less memory.");
 					System.out.println("s - This method scans the database of pictures: for each picture that is OK by the first parameter, a copy is made and filtered by the second parameter, and added to the database. Displays the new database of pictures.");
+					System.out.println("v - Scans the database of pictures: for each picture that is OK by the Decision, adds it mirrored and rotated 180 degrees (and, for square pictures, rotated 90 degrees and transposed), 3 or 7 more pictures for each. They take up almost no memory, and their pixels are made only when they are used.");
 					System.out.println("< - Sorts the picture database according to a Comparator passed in, and displays the newly sorted database of pictures.");
 					System.out.println("f - Does not modify the database of pictures, but this filter will be applied to all subsequent files that are loaded.");
+					System.out.println("t - Sets whether subsequent files that are loaded use the thumbnails embedded in them (e.g. by cameras) when these are at least as large as the pictures in the database; much faster, and almost as good for small pictures.");
+					System.out.println("u - Sets how alike subsequent files that are loaded must be to pictures already in the database to be dropped as duplicates: -1 drops only exact copies; 0-64 also drops near copies whose perceptual hashes differ in at most that many bits (and whose average colors are close). About 5 finds re-exports and burst shots.");
+					System.out.println("p - Sets how many pictures each subsequent file that is loaded gives: 0 crops per side gives the whole picture; n gives up to n*n crops of it (of the database pictures' shape), on a grid or where it has the most detail. The picture is decoded only once for all its crops, so this makes a larger database from the same files almost as fast.");
 					System.out.println("m - Applies the metric to each picture in the database of pictures, and applies the metric to all subsequent files that are loaded. This is the metric that will be used to render the picture. ");
 					System.out.println("L - Loads the picture to render through a file selector popup window.");
 					System.out.println("S - Scales the picture to render given a width and a height.");
@@ -114,6 +134,7 @@ public class View // extends JFrame
 					System.out.println("Decsions    Available = " + DecisionFactory.AVAILABLE_LIST);
 					System.out.println("Comparators Available = " + ComparatorFactory.AVAILABLE_LIST);
 					System.out.println("Filters     Available = " + FilterFactory.AVAILABLE_LIST);
+					System.out.println("              (join Filter names with + to apply them in sequence)");
 					System.out.println("Metrics     Available = " + MetricFactory.AVAILABLE_LIST);
 
 				} else if (selection == 'r') {
@@ -126,20 +147,73 @@ public class View // extends JFrame
 					System.out.println("See Picture Database Selection pop-up window\n");
 					model.loadMoreInPictureDatabase(pWidth, pHeight);
 
+				} else if (selection == 'z') {
+					int pWidth = Prompt.forInt("Enter width  for Picture DB images (in pixels)", 1, 1000, 13);
+					int pHeight = Prompt.forInt("Enter height for Picture DB images (in pixels)", 1, 1000, 16);
+					System.out.println("See Archive Selection pop-up window\n");
+					model.loadArchiveInPictureDatabase(pWidth, pHeight);
+
+				} else if (selection == 'y') {
+					Dimension size = model.getDatabasePictureSize();
+					int pWidth = size.width, pHeight = size.height;
+					if (pWidth == 0) {
+						pWidth = Prompt.forInt("Enter width  for Picture DB images (in pixels)", 1, 1000, 13);
+						pHeight = Prompt.forInt("Enter height for Picture DB images (in pixels)", 1, 1000, 16);
+					}
+					model.syncPictureDatabase(pWidth, pHeight);
+
 				} else if (selection == 'd') {
 					model.displayPictureDatabase();
 
+				} else if (selection == 'w') {
+					System.out.println("See save as popup window");
+					model.savePictureDatabase();
+
+				} else if (selection == 'o') {
+					char how = Prompt.forChar("Load the pictures into memory (l), map them read-only, sharing them with other programs (m), or leave them on disk (d)? ", "l m d");
+					System.out.println("See Database Selection pop-up window\n");
+					if (how == 'm')
+						model.mapPictureDatabase();
+					else if (how == 'd')
+						model.openPictureDatabase();
+					else
+						model.loadPictureDatabase();
+
+				} else if (selection == 'c') {
+					model.setPictureCacheSize(Prompt.forInt("Enter picture cache size (in MB)", 1, 1 << 20, 64));
+
+				} else if (selection == 'k') {
+					char how = Prompt.forChar("Keep pictures as pictures (n), packed (p), or packed and compressed (c)? ", "n p c");
+					model.setCompactTiles(how != 'n', how == 'c');
+
 				} else if (selection == 's') {
 					model.shift(DecisionFactory.getDecision(Prompt.forString("Enter Decision Name")),
 							FilterFactory.getFilter(Prompt.forString("Enter Filter Name")),
 							Prompt.forString("Enter tag for files shifted"));
 
+				} else if (selection == 'v') {
+					model.addOrientations(DecisionFactory.getDecision(Prompt.forString("Enter Decision Name")));
+
 				} else if (selection == '<') {
 					model.sortPictureDatabase(
 							ComparatorFactory.getComparator(Prompt.forString("Enter Comparator Name")));
 
 				} else if (selection == 'f') {
-					model.setFilter(FilterFactory.getFilter(Prompt.forString("Enter Filter Name")));
+					String name = Prompt.forString("Enter Filter Name");
+					model.setFilter(FilterFactory.getFilter(name), name);
+
+				} else if (selection == 't') {
+					char yesNo = Prompt.forChar("Use embedded thumbnails? y/n: ", "y n Y N");
+					model.setUseThumbnails(yesNo == 'y' || yesNo == 'Y');
+
+				} else if (selection == 'u') {
+					model.setDuplicateDistance(Prompt.forInt("Enter most bits near copies differ in, or -1 for exact copies only", -1, 64, 5));
+
+				} else if (selection == 'p') {
+					int perSide = Prompt.forInt("Enter crops per side, or 0 for the whole picture", 0, 8, 0);
+					boolean salient = perSide > 0
+							&& Prompt.forChar("Crop on a grid (g) or where the picture has the most detail (s)? ", "g s") == 's';
+					model.setCrops(perSide, salient);
 
 				} else if (selection == 'm') {
 					model.setMetric(MetricFactory.getMetric(Prompt.forString("Enter Metric Name")));